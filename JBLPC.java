@@ -6,14 +6,20 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import jbLPC.compiler.C_Compilation;
+import jbLPC.compiler.C_Compiler;
+import jbLPC.debug.Debugger;
 import jbLPC.util.Prefs;
 import jbLPC.vm.VM;
 
 public class JBLPC {
+  private Debugger debugger;
   private VM vm;
   private int exitCode;
   private String exitMessage;
@@ -21,7 +27,8 @@ public class JBLPC {
 
   //JBLPC()
   public JBLPC() {
-    vm = new VM();
+    debugger = new Debugger();
+    vm = new VM(debugger);
     debugCommands = buildDebugCommands();
   }
 
@@ -30,7 +37,7 @@ public class JBLPC {
     try {
       byte[] source = Files.readAllBytes(Paths.get(path));
 
-      VM.InterpretResult result = vm.interpret(
+      VM.InterpretResult result = interpret(
         path,
         new String(source, Charset.defaultCharset())
       );
@@ -47,6 +54,16 @@ public class JBLPC {
     }
   }
 
+  //interpret(String, String)
+  private VM.InterpretResult interpret(String name, String source) {
+    C_Compilation compilation = new C_Compiler(debugger).compile(name, source);
+
+    if (compilation == null)
+      return VM.InterpretResult.INTERPRET_COMPILE_ERROR;
+
+    return vm.interpret(compilation);
+  }
+
   //repl()
   public void repl() {
     InputStreamReader input = new InputStreamReader(System.in);
@@ -74,7 +91,7 @@ public class JBLPC {
        }
 
         //send line to VM for interpreting
-        vm.interpret(line, line);
+        interpret("repl", line);
       } catch (IOException e) {
         exitCode = 1;
         exitMessage = "IOException reading line.";
@@ -174,12 +191,44 @@ public class JBLPC {
     System.out.println(paddedKey + ": " + paddedStatus + " " + label);
   }
 
+  //precompile()
+  //Compile the whole lib ahead of time, across all cores.  The lib
+  //is the PATH_LIB pref unless --lib names another directory.
+  private void precompile() {
+    long start = System.nanoTime();
+
+    try {
+      for (Path path : vm.precompile())
+        System.err.println("Could not compile '" + path + "'.");
+    } catch (IOException e) {
+      System.err.println("Could not read lib '" + vm.getLibPath() + "'.");
+
+      return;
+    }
+
+    debugger.printProgress(
+      "Precompiled lib in " + (System.nanoTime() - start) / 1_000_000 + "ms"
+    );
+  }
+
   //main(String[])
   public static void main(String[] args) throws IOException {
     JBLPC jbLPC = new JBLPC();
 
+    if (args.length > 1 && args[0].equals("--lib")) {
+      jbLPC.vm.setLibPath(args[1]);
+
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+
+    if (args.length > 0 && args[0].equals("--precompile")) {
+      jbLPC.precompile();
+
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+
     if (args.length > 1)
-      jbLPC.shutdown(64, "Usage: jbLPC [script]");
+      jbLPC.shutdown(64, "Usage: jbLPC [--lib dir] [--precompile] [script]");
     else if (args.length == 1)
       jbLPC.runFile(args[0]);
     else
@@ -0,0 +1,125 @@
+package jbLPC.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import jbLPC.compiler.C_Compilation;
+import jbLPC.compiler.C_Compiler;
+import jbLPC.compiler.C_Scope;
+import jbLPC.debug.Debugger;
+
+//Fixture loading and quiet compiler/VM plumbing shared by the
+//benchmarks.  Fixtures live beside these classes, under fixtures/.
+final class BenchSupport {
+  static final String[] LIB_FIXTURES = {
+    "living.lpc", "monster.lpc", "room.lpc"
+  };
+
+  static final String[] INCLUDE_FIXTURES = {
+    "defs.h", "messages.h"
+  };
+
+  //BenchSupport()
+  private BenchSupport() {}
+
+  //fixture(String)
+  static String fixture(String name) {
+    try (InputStream in = BenchSupport.class.getResourceAsStream("fixtures/" + name)) {
+      if (in == null)
+        throw new IllegalStateException("Missing fixture '" + name + "'.");
+
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  //quietDebugger()
+  //A Debugger that neither traces nor disassembles, whatever the
+  //debug preferences say, so that only the subsystem is measured.
+  static Debugger quietDebugger() {
+    return new Debugger() {
+      @Override
+      public boolean snapshotTraceFlags() {
+        return false;
+      }
+
+      @Override
+      public void disassembleScope(C_Scope scope) {}
+
+      @Override
+      public void printProgress(String message) {}
+
+      @Override
+      public void printSource(String source) {}
+    };
+  }
+
+  //compileScript(Debugger, String)
+  static C_Compilation compileScript(Debugger debugger, String name) {
+    return compileScript(debugger, name, false);
+  }
+
+  //compileScript(Debugger, String, boolean)
+  static C_Compilation compileScript(Debugger debugger, String name, boolean registerCode) {
+    return compileScript(debugger, name, registerCode, true);
+  }
+
+  //compileScript(Debugger, String, boolean, boolean)
+  static C_Compilation compileScript(Debugger debugger, String name, boolean registerCode, boolean optimize) {
+    C_Compiler compiler = new C_Compiler(debugger);
+
+    compiler.setRegisterCode(registerCode);
+    compiler.setOptimize(optimize);
+
+    C_Compilation compilation = compiler.compile(name, fixture(name));
+
+    if (compilation == null)
+      throw new IllegalStateException("Fixture '" + name + "' failed to compile.");
+
+    return compilation;
+  }
+
+  //libDir()
+  //Copy the object fixtures into a fresh lib directory.
+  static Path libDir() throws IOException {
+    Path dir = Files.createTempDirectory("jbLPC-bench-lib");
+
+    for (String name : LIB_FIXTURES)
+      Files.writeString(dir.resolve(name), fixture("lib/" + name));
+
+    return dir;
+  }
+
+  //includeDir()
+  //Copy the header fixtures into a fresh include directory, with
+  //@INC@ replaced by that directory's path.
+  static Path includeDir() throws IOException {
+    Path dir = Files.createTempDirectory("jbLPC-bench-include");
+
+    for (String name : INCLUDE_FIXTURES)
+      Files.writeString(dir.resolve(name), withIncludeDir(fixture("include/" + name), dir));
+
+    return dir;
+  }
+
+  //withIncludeDir(String, Path)
+  static String withIncludeDir(String source, Path includeDir) {
+    return source.replace("@INC@", includeDir.toString());
+  }
+
+  //delete(Path)
+  static void delete(Path dir) throws IOException {
+    if (dir == null)
+      return;
+
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+}
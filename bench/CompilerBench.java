@@ -0,0 +1,85 @@
+package jbLPC.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jbLPC.compiler.C_Compiler;
+import jbLPC.compiler.C_ObjectCompiler;
+import jbLPC.compiler.C_ProgramTable;
+import jbLPC.debug.Debugger;
+import jbLPC.util.SourceFile;
+
+//Full front-end compiles: one script, and a synthetic mudlib of
+//objects that all inherit a common base.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBench {
+  @Param({"200"})
+  public int objectCount;
+
+  private Debugger debugger;
+  private Path libDir;
+  private String script;
+
+  //setup()
+  @Setup
+  public void setup() throws IOException {
+    debugger = BenchSupport.quietDebugger();
+    libDir = BenchSupport.libDir();
+    script = BenchSupport.fixture("objects.lpc") + BenchSupport.fixture("closures.lpc");
+
+    String template = BenchSupport.fixture("lib/mudlib_template.lpc");
+
+    for (int i = 0; i < objectCount; i++)
+      Files.writeString(
+        libDir.resolve("obj" + i + ".lpc"),
+        template.replace("@N@", Integer.toString(i))
+      );
+  }
+
+  //tearDown()
+  @TearDown
+  public void tearDown() throws IOException {
+    BenchSupport.delete(libDir);
+  }
+
+  //compileScript(Blackhole)
+  @Benchmark
+  public void compileScript(Blackhole bh) {
+    bh.consume(new C_Compiler(debugger).compile("script", script));
+  }
+
+  //compileMudlib(Blackhole)
+  @Benchmark
+  public void compileMudlib(Blackhole bh) {
+    //start cold every time
+    C_ProgramTable.instance().clear();
+
+    for (int i = 0; i < objectCount; i++) {
+      SourceFile file = new SourceFile(libDir.resolve("obj" + i + ".lpc").toString());
+      C_ObjectCompiler compiler = new C_ObjectCompiler(debugger, libDir.toString());
+
+      bh.consume(compiler.compile(libDir.resolve(file.name()), file.prefix(), file.source()));
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package jbLPC.bench;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jbLPC.compiler.C_Compilation;
+import jbLPC.compiler.C_InstrList;
+import jbLPC.compiler.C_OpCode;
+import jbLPC.compiler.C_ProgramTable;
+import jbLPC.compiler.C_Scope;
+import jbLPC.debug.Debugger;
+import jbLPC.util.ObjStack;
+import jbLPC.vm.VM;
+
+//Dynamic opcode-pair frequencies over the VM fixtures, gathered
+//through the Debugger's trace hook.  Superinstruction candidates
+//for C_Peephole are picked from the top of this list.
+//
+//  java -cp benchmarks.jar jbLPC.bench.OpcodeStats [top-N]
+public class OpcodeStats {
+  private static final String[] WORKLOADS = {
+    "fib", "loop", "objects", "churn", "closures"
+  };
+
+  private static String[] names = opcodeNames();
+
+  private long[] pairCounts = new long[256 * 256];
+  private long total;
+
+  //main(String[])
+  public static void main(String[] args) throws IOException {
+    int top = (args.length > 0) ? Integer.parseInt(args[0]) : 25;
+
+    new OpcodeStats().run(top);
+  }
+
+  //run(int)
+  private void run(int top) throws IOException {
+    Path libDir = BenchSupport.libDir();
+    Debugger debugger = new PairCounter();
+
+    try {
+      for (String workload : WORKLOADS) {
+        C_ProgramTable.instance().clear();
+
+        //count the compiler's raw output
+        C_Compilation compilation = BenchSupport.compileScript(debugger, workload + ".lpc", false, false);
+        VM vm = new VM(debugger, str -> {});
+
+        vm.setLibPath(libDir.toString());
+        vm.setOptimize(false);
+        vm.interpret(compilation);
+      }
+    } finally {
+      BenchSupport.delete(libDir);
+    }
+
+    report(top);
+  }
+
+  //report(int)
+  private void report(int top) {
+    List<Integer> pairs = new ArrayList<>();
+
+    for (int i = 0; i < pairCounts.length; i++)
+      if (pairCounts[i] > 0)
+        pairs.add(i);
+
+    pairs.sort((a, b) -> Long.compare(pairCounts[b], pairCounts[a]));
+
+    System.out.println(String.format("%,d instruction pairs executed", total));
+
+    for (int i = 0; i < Math.min(top, pairs.size()); i++) {
+      int pair = pairs.get(i);
+
+      System.out.println(String.format(
+        "%6.2f%%  %-18s %s",
+        100.0 * pairCounts[pair] / total,
+        names[pair >> 8],
+        names[pair & 0xFF]
+      ));
+    }
+  }
+
+  //opcodeNames()
+  private static String[] opcodeNames() {
+    String[] names = new String[256];
+
+    for (int i = 0; i < names.length; i++)
+      names[i] = String.format("0x%02X", i);
+
+    for (Field field : C_OpCode.class.getFields())
+      if (Modifier.isStatic(field.getModifiers())
+        && field.getType() == byte.class
+        && field.getName().startsWith("OP_"))
+        try {
+          names[field.getByte(null) & 0xFF] = field.getName();
+        } catch (IllegalAccessException e) {
+          throw new IllegalStateException(e);
+        }
+
+    return names;
+  }
+
+  //PairCounter
+  //Counts consecutive instructions within one instruction list;
+  //calls and returns break the sequence.
+  private class PairCounter extends Debugger {
+    private C_InstrList lastList;
+    private int lastCode;
+
+    //snapshotTraceFlags()
+    @Override
+    public boolean snapshotTraceFlags() {
+      return true;
+    }
+
+    //disassembleScope(C_Scope)
+    @Override
+    public void disassembleScope(C_Scope scope) {}
+
+    //printProgress(String)
+    @Override
+    public void printProgress(String message) {}
+
+    //printSource(String)
+    @Override
+    public void printSource(String source) {}
+
+    //traceExecution(C_InstrList, int, Object[], ObjStack)
+    @Override
+    public void traceExecution(C_InstrList instrList, int index, Object[] globals, ObjStack vStack) {
+      int code = instrList.codeArray()[index] & 0xFF;
+
+      if (instrList == lastList) {
+        pairCounts[(lastCode << 8) | code]++;
+        total++;
+      }
+
+      lastList = instrList;
+      lastCode = code;
+    }
+  }
+}
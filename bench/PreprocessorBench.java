@@ -0,0 +1,62 @@
+package jbLPC.bench;
+
+import static jbLPC.scanner.TokenType.TOKEN_EOF;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jbLPC.debug.Debugger;
+import jbLPC.scanner.Scanner;
+import jbLPC.scanner.Token;
+
+//Tokenizing an include-heavy file: #include, #define and macro
+//expansion on the way to the token stream.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreprocessorBench {
+  private Debugger debugger;
+  private Path includeDir;
+  private String source;
+
+  //setup()
+  @Setup
+  public void setup() throws IOException {
+    debugger = BenchSupport.quietDebugger();
+    includeDir = BenchSupport.includeDir();
+    source = BenchSupport.withIncludeDir(BenchSupport.fixture("include_heavy.lpc"), includeDir);
+  }
+
+  //tearDown()
+  @TearDown
+  public void tearDown() throws IOException {
+    BenchSupport.delete(includeDir);
+  }
+
+  //preprocessIncludes(Blackhole)
+  @Benchmark
+  public void preprocessIncludes(Blackhole bh) {
+    Scanner scanner = new Scanner(debugger, source);
+    Token token;
+
+    while ((token = scanner.next()).type() != TOKEN_EOF)
+      bh.consume(token);
+  }
+}
@@ -0,0 +1,57 @@
+package jbLPC.bench;
+
+import static jbLPC.scanner.TokenType.TOKEN_EOF;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jbLPC.debug.Debugger;
+import jbLPC.scanner.Scanner;
+import jbLPC.scanner.Token;
+
+//Tokenizing plain LPC source, with no preprocessor directives.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBench {
+  private Debugger debugger;
+  private String source;
+
+  //setup()
+  @Setup
+  public void setup() {
+    debugger = BenchSupport.quietDebugger();
+
+    StringBuilder sb = new StringBuilder();
+
+    //a few hundred lines of ordinary code
+    for (int i = 0; i < 20; i++)
+      sb.append(BenchSupport.fixture("lib/mudlib_template.lpc").replace("@N@", Integer.toString(i)));
+
+    source = sb.toString();
+  }
+
+  //scanPlain(Blackhole)
+  @Benchmark
+  public void scanPlain(Blackhole bh) {
+    Scanner scanner = new Scanner(debugger, source);
+    Token token;
+
+    while ((token = scanner.next()).type() != TOKEN_EOF)
+      bh.consume(token);
+  }
+}
@@ -0,0 +1,75 @@
+package jbLPC.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jbLPC.compiler.C_Compilation;
+import jbLPC.compiler.C_ProgramTable;
+import jbLPC.debug.Debugger;
+import jbLPC.vm.VM;
+import jbLPC.vm.VM.InterpretResult;
+
+//Bytecode dispatch on precompiled scripts; compilation is done in
+//setup and is not measured.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VMBench {
+  @Param({"fib", "loop", "objects", "churn", "closures"})
+  public String workload;
+
+  @Param({"stack", "register"})
+  public String code;
+
+  private Path libDir;
+  private VM vm;
+  private C_Compilation compilation;
+
+  //setup()
+  @Setup
+  public void setup() throws IOException {
+    Debugger debugger = BenchSupport.quietDebugger();
+
+    C_ProgramTable.instance().clear();
+
+    libDir = BenchSupport.libDir();
+    vm = new VM(debugger, str -> {}); //discard script output
+    vm.setLibPath(libDir.toString());
+    vm.setRegisterCode(code.equals("register"));
+    compilation = BenchSupport.compileScript(debugger, workload + ".lpc", code.equals("register"));
+  }
+
+  //tearDown()
+  @TearDown
+  public void tearDown() throws IOException {
+    BenchSupport.delete(libDir);
+  }
+
+  //run()
+  @Benchmark
+  public InterpretResult run() {
+    InterpretResult result = vm.interpret(compilation);
+
+    if (result != InterpretResult.INTERPRET_OK)
+      throw new IllegalStateException(workload + ": " + result);
+
+    return result;
+  }
+}
@@ -0,0 +1,13 @@
+#ifndef DEFS_H
+#define DEFS_H
+
+#define MAX_HP 100
+#define MIN_HP 0
+#define BASE_STR 10
+#define BASE_DEX 10
+#define BASE_CON 10
+#define CLAMP(x, lo, hi) ((x) < (lo) ? (lo) : ((x) > (hi) ? (hi) : (x)))
+#define SQUARE(x) ((x) * (x))
+#define TWICE(x) ((x) + (x))
+
+#endif
@@ -0,0 +1,11 @@
+#ifndef MESSAGES_H
+#define MESSAGES_H
+
+#include "@INC@/defs.h"
+
+#define MSG_HELLO "Hello there."
+#define MSG_BYE "Goodbye."
+#define MSG_HURT "You are hurt."
+#define MSG_HEAL "You feel better."
+
+#endif
@@ -2,13 +2,17 @@ package jbLPC.compiler;
 
 import static jbLPC.compiler.C_Compilation.C_CompilationType.TYPE_SCRIPT;
 import static jbLPC.compiler.C_OpCode.OP_ADD;
+import static jbLPC.compiler.C_OpCode.OP_CALL;
 import static jbLPC.compiler.C_OpCode.OP_CLOSE_UPVAL;
 import static jbLPC.compiler.C_OpCode.OP_CLOSURE;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT;
 import static jbLPC.compiler.C_OpCode.OP_DEF_GLOBAL;
 import static jbLPC.compiler.C_OpCode.OP_DIVIDE;
+import static jbLPC.compiler.C_OpCode.OP_FALSE;
 import static jbLPC.compiler.C_OpCode.OP_GET_GLOBAL;
 import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL;
 import static jbLPC.compiler.C_OpCode.OP_GET_UPVAL;
+import static jbLPC.compiler.C_OpCode.OP_INVOKE;
 import static jbLPC.compiler.C_OpCode.OP_JUMP;
 import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_FALSE;
 import static jbLPC.compiler.C_OpCode.OP_LOOP;
@@ -20,6 +24,9 @@ import static jbLPC.compiler.C_OpCode.OP_SET_GLOBAL;
 import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL;
 import static jbLPC.compiler.C_OpCode.OP_SET_UPVAL;
 import static jbLPC.compiler.C_OpCode.OP_SUBTRACT;
+import static jbLPC.compiler.C_OpCode.OP_TAIL_CALL;
+import static jbLPC.compiler.C_OpCode.OP_TAIL_INVOKE;
+import static jbLPC.compiler.C_OpCode.OP_TRUE;
 import static jbLPC.parser.Parser.Precedence.PREC_ASSIGNMENT;
 import static jbLPC.scanner.TokenType.TOKEN_COLON;
 import static jbLPC.scanner.TokenType.TOKEN_COMMA;
@@ -53,6 +60,8 @@ public class C_Compiler {
   protected Parser parser;
   protected C_Scope currScope;
   protected Debugger debugger;
+  protected boolean registerCode; //emit register ops where they fit
+  protected boolean optimize = true; //run C_Peephole over finished code
 //  protected C_CompilerClass currClass;
 
   //C_Compiler()
@@ -67,6 +76,19 @@ public class C_Compiler {
     return parser;
   }
 
+  //setRegisterCode(boolean)
+  //Build register code rather than pure stack code.
+  public void setRegisterCode(boolean registerCode) {
+    this.registerCode = registerCode;
+  }
+
+  //setOptimize(boolean)
+  //Run the peephole pass (the default); off leaves the compiler's
+  //raw output, e.g. for gathering opcode pair stats.
+  public void setOptimize(boolean optimize) {
+    this.optimize = optimize;
+  }
+
   //currInstrList()
   public C_InstrList currInstrList() {
     return currScope.compilation().instrList();
@@ -101,6 +123,8 @@ public class C_Compiler {
     emitCode(OP_NIL); //return value; always null for a Script
     emitCode(OP_RETURN);
 
+    finishInstrList();
+
     debugger.disassembleScope(currScope);
 
     return currScope.compilation();
@@ -143,9 +167,22 @@ public class C_Compiler {
       return 0;
     }
 
+    if (currScope.compilation().type() == TYPE_SCRIPT)
+      return globalSlot(token);
+
     return emitConstant(token.lexeme());
   }
 
+  //globalSlot(Token)
+  protected int globalSlot(Token token) {
+    int slot = C_GlobalTable.instance().slot(token.lexeme());
+
+    if (slot > C_OpCode.MAX_WIDE_OPERAND)
+      parser.error("Too many global variables.");
+
+    return slot;
+  }
+
   //declareLocalVar(Token)
   private void declareLocalVar(Token token) {
     //In the locals, a variable is "declared" when it is
@@ -163,6 +200,12 @@ public class C_Compiler {
         parser.error("Already a variable with this name in this scope.");
     }
 
+    if (currScope.locals().size() > C_OpCode.MAX_OPERAND) {
+      parser.error("Too many local variables in function.");
+
+      return;
+    }
+
     //Record existence of local variable.
     C_Local local = new C_Local(token, -1);
 
@@ -202,7 +245,7 @@ public class C_Compiler {
       //variable at runtime; it's on top of the stack.
     } else if (currScope.compilation().type() == TYPE_SCRIPT) {
       emitCode(OP_DEF_GLOBAL);
-      emitCode(index);
+      emitShort(index);
     }
   }
 
@@ -224,6 +267,12 @@ public class C_Compiler {
         return i;
     }
 
+    if (upvalueCount > C_OpCode.MAX_OPERAND) {
+      parser.error("Too many closure variables in function.");
+
+      return 0;
+    }
+
     //Return index of the created upvalue in the currScope's
     //upvalue list.  That index becomes the operand to the
     //OP_GET_UPVALUE and OP_SET_UPVALUE instructions.
@@ -238,6 +287,9 @@ public class C_Compiler {
       do {
         expression();
 
+        if (argCount == C_OpCode.MAX_OPERAND)
+          parser.error("Can't have more than " + C_OpCode.MAX_OPERAND + " arguments.");
+
         argCount++;
       } while (parser.match(TOKEN_COMMA));
 
@@ -261,15 +313,13 @@ public class C_Compiler {
 
   //compoundAssignment(byte, byte, byte, int index)
   protected void compoundAssignment(byte getOp, byte setOp, byte assignOp, int index) {
-    emitCode(getOp);
-    emitCode(index);
+    emitOperand(getOp, index);
 
     expression();
 
     emitCode(assignOp);
 
-    emitCode(setOp);
-    emitCode(index);
+    emitOperand(setOp, index);
   }
 
   //emitCode(int)
@@ -285,25 +335,167 @@ public class C_Compiler {
       currInstrList().addCode(code, parser.previous().line());
   }
 
+  //emitShort(int)
+  //Emit a two-byte (big-endian) operand.
+  public void emitShort(int operand) {
+    emitCode((operand >> 8) & 0xFF);
+    emitCode(operand & 0xFF);
+  }
+
+  //emitOperand(byte, int)
+  //Emit an opcode followed by its operand, at the width
+  //the opcode calls for.
+  public void emitOperand(byte code, int operand) {
+    emitCode(code);
+
+    if (C_OpCode.hasWideOperand(code))
+      emitShort(operand);
+    else
+      emitCode(operand);
+  }
+
   //emitConstant(Object)
   public int emitConstant(Object constant) {
-    return currInstrList().addConstant(constant);
+    int index = currInstrList().addConstant(constant);
+
+    if (index > C_OpCode.MAX_WIDE_OPERAND)
+      parser.error("Too many constants in one compilation.");
+
+    return index;
+  }
+
+  //emitLiteral(Object)
+  //Emit code pushing a value known at compile time, and note it
+  //as a candidate for folding.
+  public void emitLiteral(Object value) {
+    int start = currInstrList().codes().size();
+
+    if (value == null)
+      emitCode(OP_NIL);
+    else if (value instanceof Boolean)
+      emitCode((Boolean)value ? OP_TRUE : OP_FALSE);
+    else {
+      int index = emitConstant(value);
+
+      emitCode(OP_CONSTANT);
+      emitShort(index);
+    }
+
+    currInstrList().markLiteral(start, value);
+  }
+
+  //emitBinary(byte)
+  //Emit a binary operator, or, if both its operands are literals,
+  //the literal it evaluates to.
+  public void emitBinary(byte code) {
+    C_InstrList instrList = currInstrList();
+
+    if (instrList.endsWithLiterals(2)) {
+      Object value = C_ConstantFolder.fold(code, instrList.literal(1), instrList.literal(0));
+
+      if (value != C_ConstantFolder.NOT_CONSTANT) {
+        instrList.dropLiterals(2);
+
+        emitLiteral(value);
+
+        return;
+      }
+    }
+
+    emitCode(code);
+  }
+
+  //emitUnary(byte)
+  //As emitBinary(byte), for a unary operator.
+  public void emitUnary(byte code) {
+    C_InstrList instrList = currInstrList();
+
+    if (instrList.endsWithLiterals(1)) {
+      Object value = C_ConstantFolder.fold(code, instrList.literal(0));
+
+      if (value != C_ConstantFolder.NOT_CONSTANT) {
+        instrList.dropLiterals(1);
+
+        emitLiteral(value);
+
+        return;
+      }
+    }
+
+    emitCode(code);
+  }
+
+  //literalCondition()
+  //If the condition just compiled is a literal, drop its code and
+  //return whether it holds; otherwise return null.
+  private Boolean literalCondition() {
+    C_InstrList instrList = currInstrList();
+
+    if (!instrList.endsWithLiterals(1))
+      return null;
+
+    boolean holds = !C_ConstantFolder.isFalsey(instrList.literal(0));
+
+    instrList.dropLiterals(1);
+
+    return holds;
+  }
+
+  //deadStatement()
+  //Compile a statement that can never run, for its errors only,
+  //then discard its code.
+  private void deadStatement() {
+    int mark = currInstrList().codes().size();
+
+    statement();
+
+    currInstrList().truncate(mark);
+  }
+
+  //emitCall(int)
+  public void emitCall(int argCount) {
+    currInstrList().markCall(currInstrList().codes().size());
+
+    emitCode(OP_CALL);
+    emitCode(argCount);
+  }
+
+  //emitInvoke(int, int)
+  public void emitInvoke(int index, int argCount) {
+    currInstrList().markCall(currInstrList().codes().size());
+
+    emitCode(OP_INVOKE);
+    emitShort(index); //method name
+    emitCode(argCount);
   }
 
   //emitJump(byte)
   public int emitJump(byte code) {
     emitCode(code);
-    emitCode(0xFF); //placeholder, later backpatched
+    emitShort(0xFFFF); //placeholder, later backpatched
 
-    return currInstrList().codes().size() - 1;
+    return currInstrList().codes().size() - 2;
   }
 
   //emitLoop(int)
   private void emitLoop(int loopStart) {
-    int offset = currInstrList().codes().size() - loopStart + 2;
+    // +3 to cover OP_LOOP and its own operand.
+    int offset = currInstrList().codes().size() - loopStart + 3;
+
+    if (offset > C_OpCode.MAX_WIDE_OPERAND)
+      parser.error("Loop body too large.");
 
     emitCode(OP_LOOP);
-    emitCode(offset);
+    emitShort(offset);
+  }
+
+  //finishInstrList()
+  //Optimize and compact the current scope's finished code.
+  protected void finishInstrList() {
+    if (optimize && !parser.hadError())
+      C_Peephole.optimize(currInstrList(), registerCode);
+
+    currInstrList().compact();
   }
 
   //endFunction()
@@ -316,6 +508,8 @@ public class C_Compiler {
 
     function.setUpvalueCount(currScope.upvalues().size());
 
+    finishInstrList();
+
     if (!parser.hadError())
       debugger.disassembleScope(currScope);
 
@@ -371,16 +565,22 @@ public class C_Compiler {
 
      //Condition clause.
     int exitJump = -1;
+    int deadStart = -1; //start of the loop's code, if it never runs
 
     if (!parser.match(TOKEN_SEMICOLON)) {
       expression();
 
       parser.consume(TOKEN_SEMICOLON, "Expect ';' after loop condition.");
 
-      // Jump out of the loop if the condition is false.
-      exitJump = emitJump(OP_JUMP_IF_FALSE);
+      Boolean literal = literalCondition();
 
-      emitCode(OP_POP); // Condition.
+      if (literal == null) {
+        // Jump out of the loop if the condition is false.
+        exitJump = emitJump(OP_JUMP_IF_FALSE);
+
+        emitCode(OP_POP); // Condition.
+      } else if (!literal)
+        deadStart = currInstrList().codes().size();
     }
 
     //Increment clause.
@@ -411,6 +611,10 @@ public class C_Compiler {
       emitCode(OP_POP); // Condition.
     }
 
+    //keep the initializer, drop increment and body
+    if (deadStart != -1)
+      currInstrList().truncate(deadStart);
+
     endScope();
   }
 
@@ -460,7 +664,7 @@ public class C_Compiler {
     int index = emitConstant(function);
 
     emitCode(OP_CLOSURE);
-    emitCode(index);
+    emitShort(index);
 
     for (C_Upvalue upvalue : scope.upvalues()) {
       emitCode(upvalue.isLocal() ? 1 : 0);
@@ -478,7 +682,10 @@ public class C_Compiler {
 	if (!parser.check(TOKEN_RIGHT_BRACE))
       do {
         expression();
-      
+
+        if (elementCount == C_OpCode.MAX_WIDE_OPERAND)
+          parser.error("Too many elements in array.");
+
         elementCount++;
       } while (parser.match(TOKEN_COMMA));
 	
@@ -499,7 +706,10 @@ public class C_Compiler {
         parser.consume(TOKEN_COLON, "Expect ':' after mapping key.");
         
         expression();
-        
+
+        if (elementCount == C_OpCode.MAX_WIDE_OPERAND)
+          parser.error("Too many entries in mapping.");
+
         elementCount++;
       } while (parser.match(TOKEN_COMMA));
     
@@ -522,6 +732,25 @@ public class C_Compiler {
 
     parser.consume(TOKEN_RIGHT_PAREN, "Expect ')' after condition.");
 
+    Boolean literal = literalCondition();
+
+    //e.g. if (0), from a feature macro; keep only the branch taken
+    if (literal != null) {
+      if (literal)
+        statement();
+      else
+        deadStatement();
+
+      if (parser.match(TOKEN_ELSE)) {
+        if (literal)
+          deadStatement();
+        else
+          statement();
+      }
+
+      return;
+    }
+
     int thenJump = emitJump(OP_JUMP_IF_FALSE);
 
     emitCode(OP_POP);
@@ -553,7 +782,7 @@ public class C_Compiler {
       getOp = OP_GET_UPVAL;
       setOp = OP_SET_UPVAL;
     } else { //global variable
-      index = emitConstant(token.lexeme());
+      index = globalSlot(token);
 
       getOp = OP_GET_GLOBAL;
       setOp = OP_SET_GLOBAL;
@@ -562,8 +791,7 @@ public class C_Compiler {
     if (canAssign && parser.match(TOKEN_EQUAL)) { //assignment
       expression();
 
-      emitCode(setOp);
-      emitCode(index);
+      emitOperand(setOp, index);
     } else if (canAssign && parser.match(TOKEN_MINUS_EQUAL))
       compoundAssignment(getOp, setOp, OP_SUBTRACT, index);
     else if (canAssign && parser.match(TOKEN_PLUS_EQUAL))
@@ -573,17 +801,22 @@ public class C_Compiler {
     else if (canAssign && parser.match(TOKEN_STAR_EQUAL))
       compoundAssignment(getOp, setOp, OP_MULTIPLY, index);
     else { //retrieval
-      emitCode(getOp);
-      emitCode(index);
+      emitOperand(getOp, index);
     }
   }
 
   //patchJump(int)
   public void patchJump(int offset) {
-    // -1 to adjust for the jump offset itself.
-    int jump = currInstrList().codes().size() - offset - 1;
+    // -2 to adjust for the jump offset itself.
+    int jump = currInstrList().codes().size() - offset - 2;
+
+    if (jump > C_OpCode.MAX_WIDE_OPERAND)
+      parser.error("Too much code to jump over.");
+
+    currInstrList().codes().set(offset, (byte)((jump >> 8) & 0xFF));
+    currInstrList().codes().set(offset + 1, (byte)(jump & 0xFF));
 
-    currInstrList().codes().set(offset, (byte)jump);
+    currInstrList().markTarget(currInstrList().codes().size());
   }
 
   //resolveLocal(Scope, Token)
@@ -640,8 +873,19 @@ public class C_Compiler {
       expression();
 
       parser.consume(TOKEN_SEMICOLON, "Expect ';' after return value.");
+
+      //return f(...) or return ob->m(...): the callee's frame
+      //replaces ours, and its return is ours
+      int call = currInstrList().endingCall();
+
+      if (call != -1) {
+        byte code = currInstrList().codes().get(call);
+
+        currInstrList().codes().set(call, (code == OP_CALL) ? OP_TAIL_CALL : OP_TAIL_INVOKE);
+      }
     }
 
+    //still reached by any jump past the call, e.g. return x && f();
     emitCode(OP_RETURN);
   }
 
@@ -680,6 +924,19 @@ public class C_Compiler {
 
     parser.consume(TOKEN_RIGHT_PAREN, "Expect ')' after condition.");
 
+    Boolean literal = literalCondition();
+
+    if (literal != null) {
+      if (literal) { //loop forever, without testing
+        statement();
+
+        emitLoop(loopStart);
+      } else
+        deadStatement();
+
+      return;
+    }
+
     int exitJump = emitJump(OP_JUMP_IF_FALSE);
 
     emitCode(OP_POP);
@@ -0,0 +1,134 @@
+package jbLPC.compiler;
+
+import static jbLPC.compiler.C_OpCode.OP_ADD;
+import static jbLPC.compiler.C_OpCode.OP_DIVIDE;
+import static jbLPC.compiler.C_OpCode.OP_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_GREATER;
+import static jbLPC.compiler.C_OpCode.OP_LESS;
+import static jbLPC.compiler.C_OpCode.OP_MULTIPLY;
+import static jbLPC.compiler.C_OpCode.OP_NEGATE;
+import static jbLPC.compiler.C_OpCode.OP_NOT;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT;
+
+//Compile-time evaluation of operators on literal operands, with the
+//VM's semantics.  Anything the VM would reject (mixed operand types,
+//division by zero) is left unfolded, so that it still fails at
+//runtime, as it did before.
+public final class C_ConstantFolder {
+  //returned when an operation cannot be evaluated at compile time
+  public static final Object NOT_CONSTANT = new Object();
+
+  //C_ConstantFolder()
+  private C_ConstantFolder() {}
+
+  //fold(byte, Object, Object)
+  public static Object fold(byte code, Object a, Object b) {
+    switch (code) {
+      case OP_ADD:
+        if (a instanceof String && b instanceof String)
+          return (String)a + (String)b;
+
+        return arithmetic(code, a, b);
+      case OP_SUBTRACT:
+      case OP_MULTIPLY:
+        return arithmetic(code, a, b);
+      case OP_DIVIDE:
+        if (!isNumber(b) || isZero(b))
+          return NOT_CONSTANT;
+
+        return arithmetic(code, a, b);
+      case OP_GREATER:
+      case OP_LESS:
+        if (!isNumber(a) || !isNumber(b))
+          return NOT_CONSTANT;
+
+        if (a instanceof Long && b instanceof Long)
+          return (code == OP_GREATER) ? (long)a > (long)b : (long)a < (long)b;
+
+        return (code == OP_GREATER)
+          ? toDouble(a) > toDouble(b)
+          : toDouble(a) < toDouble(b);
+      case OP_EQUAL:
+        if (isNumber(a) && isNumber(b)) {
+          if (a instanceof Long && b instanceof Long)
+            return (long)a == (long)b;
+
+          return toDouble(a) == toDouble(b);
+        }
+
+        return (a == null) ? b == null : a.equals(b);
+      default:
+        return NOT_CONSTANT;
+    }
+  }
+
+  //fold(byte, Object)
+  public static Object fold(byte code, Object a) {
+    switch (code) {
+      case OP_NOT:
+        return isFalsey(a);
+      case OP_NEGATE:
+        if (a instanceof Long)
+          return -(long)a;
+
+        if (a instanceof Double)
+          return -(double)a;
+
+        return NOT_CONSTANT;
+      default:
+        return NOT_CONSTANT;
+    }
+  }
+
+  //isFalsey(Object)
+  //nil, false and int 0 are falsey, as in the VM.
+  public static boolean isFalsey(Object value) {
+    return
+      value == null ||
+      (value instanceof Boolean && !(boolean)value) ||
+      (value instanceof Long && (long)value == 0);
+  }
+
+  //arithmetic(byte, Object, Object)
+  private static Object arithmetic(byte code, Object a, Object b) {
+    if (!isNumber(a) || !isNumber(b))
+      return NOT_CONSTANT;
+
+    if (a instanceof Long && b instanceof Long) {
+      long x = (long)a;
+      long y = (long)b;
+
+      switch (code) {
+        case OP_ADD:      return x + y;
+        case OP_SUBTRACT: return x - y;
+        case OP_MULTIPLY: return x * y;
+        default:          return x / y; //OP_DIVIDE
+      }
+    }
+
+    double x = toDouble(a);
+    double y = toDouble(b);
+
+    switch (code) {
+      case OP_ADD:      return x + y;
+      case OP_SUBTRACT: return x - y;
+      case OP_MULTIPLY: return x * y;
+      default:          return x / y; //OP_DIVIDE
+    }
+  }
+
+  //isNumber(Object)
+  private static boolean isNumber(Object value) {
+    return value instanceof Long || value instanceof Double;
+  }
+
+  //isZero(Object)
+  private static boolean isZero(Object value) {
+    return toDouble(value) == 0.0;
+  }
+
+  //toDouble(Object)
+  private static double toDouble(Object value) {
+    return (value instanceof Long) ? (double)(long)value : (double)value;
+  }
+}
@@ -3,6 +3,9 @@ package jbLPC.compiler;
 public class C_Function extends C_Compilation implements C_HasArity {
   private int arity;
   private int upvalueCount;
+  private int heat; //calls and backward jumps, as counted by the VM
+  private volatile Object tier2; //the VM's compiled form, if any
+  private volatile Object closure; //the VM's shared closure, if any
 
   //C_Function(String)
   public C_Function(String name) {
@@ -31,4 +34,31 @@ public class C_Function extends C_Compilation implements C_HasArity {
   public void setUpvalueCount(int upvalueCount) {
     this.upvalueCount = upvalueCount;
   }
+
+  //warm()
+  //Count a call of, or backward jump in, this function; returns
+  //the count so far.  Racy across VMs, which only costs counts.
+  public int warm() {
+    return ++heat;
+  }
+
+  //tier2()
+  public Object tier2() {
+    return tier2;
+  }
+
+  //setTier2(Object)
+  public void setTier2(Object tier2) {
+    this.tier2 = tier2;
+  }
+
+  //closure()
+  public Object closure() {
+    return closure;
+  }
+
+  //setClosure(Object)
+  public void setClosure(Object closure) {
+    this.closure = closure;
+  }
 }
@@ -0,0 +1,51 @@
+package jbLPC.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//Process-wide symbol table assigning each global name a stable
+//slot.  The compiler resolves global references against it; each
+//VM keeps its globals in an array indexed by these slots.
+public final class C_GlobalTable {
+  private static final C_GlobalTable instance = new C_GlobalTable();
+
+  private List<String> names;
+  private Map<String, Integer> slots;
+
+  //C_GlobalTable()
+  private C_GlobalTable() {
+    names = new ArrayList<>();
+    slots = new HashMap<>();
+  }
+
+  //instance()
+  public static C_GlobalTable instance() {
+    return instance;
+  }
+
+  //slot(String)
+  //Return the named global's slot, assigning one if needed.
+  public synchronized int slot(String name) {
+    Integer slot = slots.get(name);
+
+    if (slot != null)
+      return slot;
+
+    names.add(name);
+    slots.put(name, names.size() - 1);
+
+    return names.size() - 1;
+  }
+
+  //name(int)
+  public synchronized String name(int slot) {
+    return names.get(slot);
+  }
+
+  //size()
+  public synchronized int size() {
+    return names.size();
+  }
+}
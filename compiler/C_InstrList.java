@@ -1,5 +1,8 @@
 package jbLPC.compiler;
 
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT;
+import static jbLPC.compiler.C_OpCode.OP_INVOKE;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -7,29 +10,46 @@ public class C_InstrList {
   private List<Byte> codes;
   private List<Object> constants;
   private List<Integer> lines;
-  
+
+  //compact form, built once emission is complete
+  private byte[] codeArray;
+  private Object[] constantArray;
+  private int[] lineRuns; //run-length pairs: (line, # of codes)
+  private Object[] siteCaches; //per-offset slots for the VM's inline caches
+
+  //constant folding state, see C_Compiler.emitBinary()
+  private int lastTarget; //highest offset a forward jump lands on
+  private List<Integer> literalStarts; //latest literal last
+  private List<Object> literals;
+
+  //start of the latest call, see C_Compiler.emitCall()
+  private int lastCall = -1;
+
   //C_InstrList()
   public C_InstrList() {
     codes = new ArrayList<>();
     constants = new ArrayList<>();
     lines = new ArrayList<>();
+
+    literalStarts = new ArrayList<>();
+    literals = new ArrayList<>();
   }
-  
+
   //instructions()
   public List<Byte> codes() {
     return codes;
   }
-  
+
   //addCode(int)
   public void addCode(int code) {
     addCode((byte)code);
   }
-  
+
   //addCode(byte)
   public void addCode(byte code) {
     addCode(code, -1);
   }
-  
+
   //addCode(int, int)
   public void addCode(int code, int line) {
     addCode((byte)code, line);
@@ -39,8 +59,10 @@ public class C_InstrList {
   public void addCode(byte code, int line) {
     codes.add(code);
     lines.add(line);
+
+    codeArray = null; //stale
   }
-  
+
   //constants()
   public List<Object> constants() {
     return constants;
@@ -49,15 +71,204 @@ public class C_InstrList {
   //addConstant(Object)
   public int addConstant(Object constant) {
     constants.add(constant);
-    
+
+    constantArray = null; //stale
+
     return constants.size() - 1;
   }
-  
+
   //lines()
   public List<Integer> lines() {
     return lines;
   }
 
+  //markTarget(int)
+  //Note that a jump lands on offset.
+  public void markTarget(int offset) {
+    lastTarget = Math.max(lastTarget, offset);
+  }
+
+  //markLiteral(int, Object)
+  //Note that the code from offset start to the end pushes value.
+  //Literals are kept as a stack, so the literal a fold leaves can
+  //fold again with the one before it, e.g. 1 - 2 * 3.
+  public void markLiteral(int start, Object value) {
+    literalStarts.add(start);
+    literals.add(value);
+  }
+
+  //endsWithLiterals(int)
+  //Whether the code ends with count (1 or 2) adjacent literals
+  //that no jump lands between or after.
+  public boolean endsWithLiterals(int count) {
+    if (literalStarts.size() < count)
+      return false;
+
+    int end = codes.size();
+
+    for (int i = 0; i < count; i++) {
+      int start = literalStarts.get(literalStarts.size() - 1 - i);
+
+      if (start >= end || literalEnd(start) != end)
+        return false;
+
+      end = start;
+    }
+
+    return lastTarget <= end;
+  }
+
+  //literal(int)
+  //The value of the latest literal (0) or the one before (1).
+  public Object literal(int n) {
+    return literals.get(literals.size() - 1 - n);
+  }
+
+  //dropLiterals(int)
+  //Remove the code of the last count literals, and their constants
+  //if nothing has been added to the pool since.
+  public void dropLiterals(int count) {
+    for (int i = 0; i < count; i++) {
+      int start = literalStarts.get(literalStarts.size() - 1);
+
+      if (codes.get(start) == OP_CONSTANT) {
+        int index = ((codes.get(start + 1) & 0xFF) << 8) | (codes.get(start + 2) & 0xFF);
+
+        if (index == constants.size() - 1) {
+          constants.remove(index);
+
+          constantArray = null; //stale
+        }
+      }
+
+      truncate(start);
+    }
+  }
+
+  //truncate(int)
+  //Discard all code from offset size on.
+  public void truncate(int size) {
+    codes.subList(size, codes.size()).clear();
+    lines.subList(size, lines.size()).clear();
+
+    codeArray = null; //stale
+
+    lastTarget = Math.min(lastTarget, size);
+
+    if (lastCall >= size)
+      lastCall = -1;
+
+    //forget literals that were discarded
+    while (!literalStarts.isEmpty() && literalStarts.get(literalStarts.size() - 1) >= size) {
+      literalStarts.remove(literalStarts.size() - 1);
+      literals.remove(literals.size() - 1);
+    }
+  }
+
+  //literalEnd(int)
+  private int literalEnd(int start) {
+    return (codes.get(start) == OP_CONSTANT) ? start + 3 : start + 1;
+  }
+
+  //markCall(int)
+  //Note that a call (OP_CALL or OP_INVOKE) starts at offset.
+  public void markCall(int offset) {
+    lastCall = offset;
+  }
+
+  //endingCall()
+  //Offset of the call the code ends with, or -1 if it ends
+  //otherwise.
+  public int endingCall() {
+    if (lastCall == -1 || lastCall >= codes.size())
+      return -1;
+
+    int length = (codes.get(lastCall) == OP_INVOKE) ? 4 : 2;
+
+    return (lastCall + length == codes.size()) ? lastCall : -1;
+  }
+
+  //replaceCodes(List<Byte>, List<Integer>)
+  //Swap in rewritten code, e.g. from C_Peephole; one line per code.
+  public void replaceCodes(List<Byte> codes, List<Integer> lines) {
+    this.codes = codes;
+    this.lines = lines;
+
+    codeArray = null; //stale
+  }
+
+  //compact()
+  //Flatten codes, constants and lines into primitive arrays
+  //for the VM's dispatch loop to read directly.
+  public void compact() {
+    codeArray = new byte[codes.size()];
+
+    for (int i = 0; i < codeArray.length; i++)
+      codeArray[i] = codes.get(i);
+
+    constantArray = constants.toArray();
+
+    List<Integer> runs = new ArrayList<>();
+
+    for (int i = 0; i < lines.size(); i++) {
+      int line = lines.get(i);
+
+      if (runs.size() > 0 && runs.get(runs.size() - 2) == line)
+        runs.set(runs.size() - 1, runs.get(runs.size() - 1) + 1);
+      else {
+        runs.add(line);
+        runs.add(1);
+      }
+    }
+
+    lineRuns = new int[runs.size()];
+
+    for (int i = 0; i < lineRuns.length; i++)
+      lineRuns[i] = runs.get(i);
+
+    siteCaches = new Object[codeArray.length];
+  }
+
+  //isCompact()
+  public boolean isCompact() {
+    return codeArray != null && constantArray != null;
+  }
+
+  //codeArray()
+  public byte[] codeArray() {
+    if (!isCompact()) compact();
+
+    return codeArray;
+  }
+
+  //constantArray()
+  public Object[] constantArray() {
+    if (!isCompact()) compact();
+
+    return constantArray;
+  }
+
+  //siteCaches()
+  public Object[] siteCaches() {
+    if (!isCompact()) compact();
+
+    return siteCaches;
+  }
+
+  //lineAt(int)
+  public int lineAt(int offset) {
+    if (!isCompact()) compact();
+
+    for (int i = 0; i < lineRuns.length; i += 2) {
+      offset -= lineRuns[i + 1];
+
+      if (offset < 0)
+        return lineRuns[i];
+    }
+
+    return -1;
+  }
+
   //printCodes()
   public String printCodes() {
     StringBuilder sb = new StringBuilder();
@@ -0,0 +1,109 @@
+package jbLPC.compiler;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//An object program.  Besides its code, it fixes the slot layout
+//of its objects' fields: inherited fields first, in the inherited
+//program's order, then the fields this program declares.
+public class C_ObjectCompilation extends C_Compilation {
+  private C_ObjectCompilation superProgram;
+  private String superPath; //as written in the inherit declaration
+  private List<Path> dependencies; //includes and inherited sources
+  private List<String> fieldNames;
+  private Map<String, Integer> fieldSlots;
+  private volatile boolean retired; //dropped from C_ProgramTable
+
+  //C_ObjectCompilation(String)
+  public C_ObjectCompilation(String name) {
+    super(name, C_CompilationType.TYPE_OBJECT);
+
+    fieldNames = new ArrayList<>();
+    fieldSlots = new HashMap<>();
+    dependencies = new ArrayList<>();
+  }
+
+  //superProgram()
+  public C_ObjectCompilation superProgram() {
+    return superProgram;
+  }
+
+  //superPath()
+  public String superPath() {
+    return superPath;
+  }
+
+  //setSuperPath(String)
+  public void setSuperPath(String superPath) {
+    this.superPath = superPath;
+  }
+
+  //dependencies()
+  public List<Path> dependencies() {
+    return dependencies;
+  }
+
+  //addDependency(Path)
+  public void addDependency(Path dependency) {
+    if (!dependencies.contains(dependency))
+      dependencies.add(dependency);
+  }
+
+  //inherit(C_ObjectCompilation)
+  //Lay out the inherited program's fields ahead of our own.
+  public void inherit(C_ObjectCompilation superProgram) {
+    this.superProgram = superProgram;
+
+    for (String fieldName : superProgram.fieldNames)
+      addField(fieldName);
+  }
+
+  //addField(String)
+  //Assign the named field a slot, or return the slot it
+  //already has.
+  public int addField(String fieldName) {
+    Integer slot = fieldSlots.get(fieldName);
+
+    if (slot != null)
+      return slot;
+
+    fieldNames.add(fieldName);
+    fieldSlots.put(fieldName, fieldNames.size() - 1);
+
+    return fieldNames.size() - 1;
+  }
+
+  //fieldSlot(String)
+  //Return the named field's slot, or -1 if there is none.
+  public int fieldSlot(String fieldName) {
+    Integer slot = fieldSlots.get(fieldName);
+
+    return (slot == null) ? -1 : slot;
+  }
+
+  //fieldName(int)
+  public String fieldName(int slot) {
+    return fieldNames.get(slot);
+  }
+
+  //fieldCount()
+  public int fieldCount() {
+    return fieldNames.size();
+  }
+
+  //retire()
+  //Note that the program table no longer serves this program (it
+  //is out of date, or was invalidated), so that inline caches let
+  //go of it.  Objects already built from it go on working.
+  public void retire() {
+    retired = true;
+  }
+
+  //isRetired()
+  public boolean isRetired() {
+    return retired;
+  }
+}
@@ -1,10 +1,10 @@
 package jbLPC.compiler;
 
-import static jbLPC.compiler.C_Compilation.C_CompilationType.TYPE_OBJECT;
 import static jbLPC.compiler.C_OpCode.OP_ADD;
 import static jbLPC.compiler.C_OpCode.OP_COMPILE;
 import static jbLPC.compiler.C_OpCode.OP_DIVIDE;
 import static jbLPC.compiler.C_OpCode.OP_FIELD;
+import static jbLPC.compiler.C_OpCode.OP_GET_FIELD_SLOT;
 import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL;
 import static jbLPC.compiler.C_OpCode.OP_GET_PROP;
 import static jbLPC.compiler.C_OpCode.OP_GET_UPVAL;
@@ -14,6 +14,7 @@ import static jbLPC.compiler.C_OpCode.OP_MULTIPLY;
 import static jbLPC.compiler.C_OpCode.OP_NIL;
 import static jbLPC.compiler.C_OpCode.OP_OBJECT;
 import static jbLPC.compiler.C_OpCode.OP_RETURN;
+import static jbLPC.compiler.C_OpCode.OP_SET_FIELD_SLOT;
 import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL;
 import static jbLPC.compiler.C_OpCode.OP_SET_PROP;
 import static jbLPC.compiler.C_OpCode.OP_SET_UPVAL;
@@ -32,30 +33,110 @@ import static jbLPC.scanner.TokenType.TOKEN_STAR_EQUAL;
 import static jbLPC.scanner.TokenType.TOKEN_STRING;
 
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
 
 import jbLPC.debug.Debugger;
 import jbLPC.parser.Parser;
 import jbLPC.scanner.Token;
+import jbLPC.util.SourceFile;
 
+//Compiled programs are shared by every VM in the process, on any
+//thread, through C_ProgramTable; a program is never changed once
+//it is in the table.  The table keeps stack and register builds of
+//a path apart, as the disk cache does.  Unoptimized builds (see
+//setOptimize(boolean)) bypass both and are never shared.
 public class C_ObjectCompiler extends C_Compiler {
-  public static Map<Path, C_Compilation> compiledObjects = new HashMap<>();
-  
-  //C_ObjectCompiler()
-  public C_ObjectCompiler(Debugger debugger) {
+  private String libPath;
+  private Set<Path> inProgress; //this compile's inheritance chain
+  private C_ObjectCompilation program;
+
+  //C_ObjectCompiler(Debugger, String)
+  public C_ObjectCompiler(Debugger debugger, String libPath) {
+    this(debugger, libPath, new HashSet<>());
+  }
+
+  //C_ObjectCompiler(Debugger, String, Set<Path>)
+  private C_ObjectCompiler(Debugger debugger, String libPath, Set<Path> inProgress) {
     super(debugger);
+
+    this.libPath = libPath;
+    this.inProgress = inProgress;
+  }
+
+  //compile(SourceFile)
+  //As compile(Path, String, String), but the source is read only
+  //if the program has to be built.
+  public C_ObjectCompilation compile(SourceFile file) {
+    Path path = Paths.get(file.path());
+
+    if (!optimize)
+      return build(path, file.prefix(), file.source());
+
+    return C_ProgramTable.instance().get(path, registerCode, () -> build(path, file.prefix(), file.source()));
   }
 
   //compile(Path, String, String)
-  public C_Compilation compile(Path path, String prefix, String source) {
-    if (C_ObjectCompiler.compiledObjects.containsKey(path))
-      return C_ObjectCompiler.compiledObjects.get(path);
+  public C_ObjectCompilation compile(Path path, String prefix, String source) {
+    if (!optimize)
+      return build(path, prefix, source);
+
+    return C_ProgramTable.instance().get(path, registerCode, () -> build(path, prefix, source));
+  }
+
+  //build(Path, String, String)
+  //Load the program from the disk cache, or compile it.
+  private C_ObjectCompilation build(Path path, String prefix, String source) {
+    C_ProgramCache diskCache = optimize ? C_ProgramTable.instance().diskCache() : null;
+
+    inProgress.add(path);
+
+    try {
+      program = (diskCache != null) ? loadCached(diskCache, path, source) : null;
+
+      if (program == null) {
+        program = compileProgram(prefix, source);
+
+        if (program == null)
+          return null;
+
+        if (diskCache != null)
+          diskCache.store(path, source, program, registerCode);
+      }
+
+      return program;
+    } finally {
+      inProgress.remove(path);
+    }
+  }
+
+  //loadCached(C_ProgramCache, Path, String)
+  private C_ObjectCompilation loadCached(C_ProgramCache diskCache, Path path, String source) {
+    C_ObjectCompilation cached = diskCache.load(path, source, registerCode);
+
+    if (cached == null || cached.superPath() == null)
+      return cached;
+
+    //link the inherited program; it is (re)loaded the same way
+    C_ObjectCompilation superProgram = compileInherited(cached.superPath());
+
+    if (superProgram == null)
+      return null;
+
+    cached.inherit(superProgram);
+
+    return cached;
+  }
+
+  //compileProgram(String, String)
+  private C_ObjectCompilation compileProgram(String prefix, String source) {
+    program = new C_ObjectCompilation(prefix);
 
     parser = new Parser(this, debugger, source);
     currScope = new C_Scope(
       null, //enclosing Scope
-      new C_Compilation(prefix, TYPE_OBJECT) //compilation
+      program //compilation
     );
 
     debugger.printProgress("Compiling LPCObject '" + prefix + "'");
@@ -63,7 +144,7 @@ public class C_ObjectCompiler extends C_Compiler {
     int index = emitConstant(prefix);
 
     emitCode(OP_OBJECT);
-    emitCode(index);
+    emitShort(index);
 
     //advance to the first non-error Token (or EOF)
     parser.advance();
@@ -82,18 +163,24 @@ public class C_ObjectCompiler extends C_Compiler {
     //end compilation
     emitCode(OP_RETURN);
 
+    finishInstrList();
+
     debugger.disassembleScope(currScope);
 
-    C_Compilation compiledObject = currScope.compilation();
-    
-    //store this compilation to avoid future recompilation
-    C_ObjectCompiler.compiledObjects.put(path, compiledObject);
+    for (String include : parser.includes())
+      program.addDependency(Paths.get(include));
 
-    return compiledObject;
+    return program;
   }
 
   //fieldDeclaration(int)
   private void fieldDeclaration(int index) {
+    //fix the field's slot before compiling its initializer
+    int slot = program.addField(parser.previous().lexeme());
+
+    if (slot > C_OpCode.MAX_WIDE_OPERAND)
+      parser.error("Too many fields in object.");
+
     if (parser.match(TOKEN_EQUAL))
       expression();
     else
@@ -102,7 +189,7 @@ public class C_ObjectCompiler extends C_Compiler {
     defineVariable(index);
 
     emitCode(OP_FIELD);
-    emitCode(index);
+    emitShort(slot);
 
     //handle variable declarations of the form:
     //var x = 99, y, z = "hello";
@@ -121,17 +208,43 @@ public class C_ObjectCompiler extends C_Compiler {
 	  funDeclaration(index);
 	  
 	  emitCode(OP_METHOD);
-	  emitCode(index);
+	  emitShort(index);
   }
 
   //inherit()
   protected void inherit() {
     parser.consume(TOKEN_STRING, "Expect inherited object name.");
     
-    int index = emitConstant(parser.previous().literal());
+    String superPath = (String)parser.previous().literal();
+    int index = emitConstant(superPath);
 
     parser.consume(TOKEN_SEMICOLON, "Expect semicolon after inherited object name.");
 
+    if (program.superProgram() != null) {
+      parser.error("An object can inherit from only one other object.");
+
+      return;
+    }
+
+    //The inherited program is compiled now, rather than when the
+    //object is loaded, so that its field layout is known.
+    C_ObjectCompilation superProgram = compileInherited(superPath);
+
+    if (superProgram == null) {
+      parser.error("Could not compile inherited object '" + superPath + "'.");
+
+      return;
+    }
+
+    program.setSuperPath(superPath);
+    program.inherit(superProgram);
+
+    //our layout changes whenever the inherited program's does
+    program.addDependency(sourcePath(superPath));
+
+    for (Path dependency : superProgram.dependencies())
+      program.addDependency(dependency);
+
     //TODO
 //    if (identifiersEqual(classToken, parser.previous()))
 //      error("A class can't inherit from itself.");
@@ -153,13 +266,34 @@ public class C_ObjectCompiler extends C_Compiler {
 //    namedVariable(classToken, false);
       
     emitCode(OP_COMPILE);
-    emitCode(index);
+    emitShort(index);
 
     emitCode(OP_INHERIT);
 
 //    currentClass.setHasSuperclass(true);
   }
 
+  //sourcePath(String)
+  private Path sourcePath(String objectPath) {
+    return Paths.get(new SourceFile(libPath + objectPath).path());
+  }
+
+  //compileInherited(String)
+  private C_ObjectCompilation compileInherited(String superPath) {
+    SourceFile file = new SourceFile(libPath + superPath);
+    Path path = Paths.get(file.path());
+
+    if (inProgress.contains(path)) //inheritance cycle
+      return null;
+
+    C_ObjectCompiler compiler = new C_ObjectCompiler(debugger, libPath, inProgress);
+
+    compiler.setRegisterCode(registerCode);
+    compiler.setOptimize(optimize);
+
+    return compiler.compile(file);
+  }
+
   //namedVariable(Token, boolean)
   //generates code to load a variable, whose name equals the
   //given Token's lexeme, onto the vStack.
@@ -175,6 +309,13 @@ public class C_ObjectCompiler extends C_Compiler {
     } else if ((index = resolveUpvalue(currScope, token)) != -1) { //upvalue
       getOp = OP_GET_UPVAL;
       setOp = OP_SET_UPVAL;
+    } else if ((index = program.fieldSlot(token.lexeme())) != -1) { //field
+      //load LPC object in which field lives
+      emitCode(OP_GET_LOCAL);
+      emitCode(0x00);
+
+      getOp = OP_GET_FIELD_SLOT;
+      setOp = OP_SET_FIELD_SLOT;
     } else { //property
       index = emitConstant(token.lexeme()); //property name
       
@@ -189,8 +330,7 @@ public class C_ObjectCompiler extends C_Compiler {
     if (canAssign && parser.match(TOKEN_EQUAL)) { //assignment
       expression();
 
-      emitCode(setOp);
-      emitCode(index);
+      emitOperand(setOp, index);
     } else if (canAssign && parser.match(TOKEN_MINUS_EQUAL))
       compoundAssignment(getOp, setOp, OP_SUBTRACT, index);
     else if (canAssign && parser.match(TOKEN_PLUS_EQUAL))
@@ -200,14 +340,20 @@ public class C_ObjectCompiler extends C_Compiler {
     else if (canAssign && parser.match(TOKEN_STAR_EQUAL))
       compoundAssignment(getOp, setOp, OP_MULTIPLY, index);
     else { //retrieval
-      emitCode(getOp);
-      emitCode(index);
+      emitOperand(getOp, index);
     }
   }
 
   //typedDeclaration()
   @Override
   protected void typedDeclaration() {
+    //declarations inside method bodies are ordinary locals
+    if (currScope.depth() > 0) {
+      super.typedDeclaration();
+
+      return;
+    }
+
 	int index = parseVariable("Expect field or method name.");
 	
     if (!parser.check(TOKEN_LEFT_PAREN))
@@ -1,8 +1,15 @@
 package jbLPC.compiler;
 
+//Operand encoding:
+//  const, jump and element-count operands are two bytes, big-endian;
+//  all other operands are one byte.  Every operand is unsigned.
+//  Register operands are local slots, as offsets from the frame base.
 public final class C_OpCode {
+  public static final int MAX_OPERAND      = 0xFF;
+  public static final int MAX_WIDE_OPERAND = 0xFFFF;
+
   public static final byte OP_ADD           = 0x00; //simple
-  public static final byte OP_ARRAY         = 0x01; //operand (element count)
+  public static final byte OP_ARRAY         = 0x01; //wide operand (element count)
   public static final byte OP_CALL          = 0x02; //operand (arg count)
   public static final byte OP_CLOSE_UPVAL   = 0x03; //simple
   public static final byte OP_CLOSURE       = 0x04; //closure
@@ -11,14 +18,14 @@ public final class C_OpCode {
   public static final byte OP_DIVIDE        = 0x07; //simple
   public static final byte OP_EQUAL         = 0x08; //simple
   public static final byte OP_FALSE         = 0x09; //simple
-  public static final byte OP_FIELD         = 0x0A; //const (field name)
-  public static final byte OP_GET_GLOBAL    = 0x0B; //const (global name)
+  public static final byte OP_FIELD         = 0x0A; //wide operand (field slot)
+  public static final byte OP_GET_GLOBAL    = 0x0B; //wide operand (global slot)
   public static final byte OP_GET_ITEM      = 0x0C; //simple
   public static final byte OP_GET_LOCAL     = 0x0D; //operand (stack offset)
   public static final byte OP_GET_PROP      = 0x0E; //const (prop name)
   public static final byte OP_GET_SUPER     = 0x0F; //const
   public static final byte OP_GET_UPVAL     = 0x10; //operand
-  public static final byte OP_DEF_GLOBAL    = 0x11; //simple
+  public static final byte OP_DEF_GLOBAL    = 0x11; //wide operand (global slot)
   public static final byte OP_GREATER       = 0x12; //simple
   public static final byte OP_INHERIT       = 0x13; //simple
   public static final byte OP_INVOKE        = 0x14; //invoke
@@ -26,7 +33,7 @@ public final class C_OpCode {
   public static final byte OP_JUMP_IF_FALSE = 0x16; //jump
   public static final byte OP_LESS          = 0x17; //simple
   public static final byte OP_LOOP          = 0x18; //jump
-  public static final byte OP_MAPPING       = 0x19; //operand (element count)
+  public static final byte OP_MAPPING       = 0x19; //wide operand (entry count)
   public static final byte OP_METHOD        = 0x1A; //const (method name)
   public static final byte OP_MULTIPLY      = 0x1B; //simple
   public static final byte OP_NEGATE        = 0x1C; //simple
@@ -35,7 +42,7 @@ public final class C_OpCode {
   public static final byte OP_OBJECT        = 0x1F; //const (object name)
   public static final byte OP_POP           = 0x20; //simple
   public static final byte OP_RETURN        = 0x21; //simple
-  public static final byte OP_SET_GLOBAL    = 0x22; //const (global name)
+  public static final byte OP_SET_GLOBAL    = 0x22; //wide operand (global slot)
   public static final byte OP_SET_ITEM      = 0x23; //simple
   public static final byte OP_SET_LOCAL     = 0x24; //operand (stack offset)
   public static final byte OP_SET_PROP      = 0x25; //const (prop name)
@@ -43,7 +50,93 @@ public final class C_OpCode {
   public static final byte OP_SUBTRACT      = 0x27; //simple
   public static final byte OP_SUPER_INVOKE  = 0x28; //invoke
   public static final byte OP_TRUE          = 0x29; //simple
+  public static final byte OP_GET_FIELD_SLOT = 0x2A; //wide operand (field slot)
+  public static final byte OP_SET_FIELD_SLOT = 0x2B; //wide operand (field slot)
+
+  //superinstructions, fused from common sequences by C_Peephole
+  public static final byte OP_GREATER_EQUAL = 0x2C; //simple (OP_LESS, OP_NOT)
+  public static final byte OP_LESS_EQUAL    = 0x2D; //simple (OP_GREATER, OP_NOT)
+  public static final byte OP_NOT_EQUAL     = 0x2E; //simple (OP_EQUAL, OP_NOT)
+  public static final byte OP_JUMP_IF_FALSE_POP = 0x2F; //jump (OP_JUMP_IF_FALSE, OP_POP)
+  public static final byte OP_GET_THIS_PROP  = 0x30; //const (OP_GET_LOCAL 0, OP_GET_PROP)
+  public static final byte OP_GET_THIS_FIELD = 0x31; //wide operand (OP_GET_LOCAL 0, OP_GET_FIELD_SLOT)
+  public static final byte OP_SET_GLOBAL_POP = 0x32; //wide operand (OP_SET_GLOBAL, OP_POP)
+  public static final byte OP_SET_LOCAL_POP  = 0x33; //operand (OP_SET_LOCAL, OP_POP)
+  public static final byte OP_GET_LOCAL_GET_LOCAL_ADD = 0x34; //two operands (OP_GET_LOCAL x2, OP_ADD)
+  public static final byte OP_CONSTANT_ADD   = 0x35; //const (OP_CONSTANT, OP_ADD)
+
+  //calls in return position, reusing the caller's RunFrame
+  public static final byte OP_TAIL_CALL     = 0x36; //operand (arg count)
+  public static final byte OP_TAIL_INVOKE   = 0x37; //invoke
+
+  //quickened forms, rewritten into a compilation's code array by
+  //the VM as it runs and never emitted by the compiler; each guards
+  //its assumption and reverts to its generic form when it fails
+  public static final byte OP_ADD_NUM        = 0x38; //simple (OP_ADD)
+  public static final byte OP_ADD_STR        = 0x39; //simple (OP_ADD)
+  public static final byte OP_CONSTANT_ADD_NUM = 0x3A; //const (OP_CONSTANT_ADD)
+  public static final byte OP_CONSTANT_ADD_STR = 0x3B; //const (OP_CONSTANT_ADD)
+  public static final byte OP_GET_FIELD_CACHED  = 0x3C; //const (OP_GET_PROP)
+  public static final byte OP_GET_METHOD_CACHED = 0x3D; //const (OP_GET_PROP)
+  public static final byte OP_GET_THIS_FIELD_CACHED  = 0x3E; //const (OP_GET_THIS_PROP)
+  public static final byte OP_GET_THIS_METHOD_CACHED = 0x3F; //const (OP_GET_THIS_PROP)
+
+  //register forms, three-address ops over a frame's locals; emitted
+  //by C_Peephole only for compilations built as register code
+  public static final byte OP_MOVE           = 0x40; //registers (dest, src)
+  public static final byte OP_LOADK          = 0x41; //register (dest), const
+  public static final byte OP_ADD_RR         = 0x42; //registers (dest, left, right)
+  public static final byte OP_SUBTRACT_RR    = 0x43; //registers (dest, left, right)
+  public static final byte OP_MULTIPLY_RR    = 0x44; //registers (dest, left, right)
+  public static final byte OP_DIVIDE_RR      = 0x45; //registers (dest, left, right)
+  public static final byte OP_ADD_RK         = 0x46; //registers (dest, left), const (right)
+  public static final byte OP_SUBTRACT_RK    = 0x47; //registers (dest, left), const (right)
+  public static final byte OP_JUMP_IF_NOT_LESS_RR = 0x48; //registers (left, right), jump
+  public static final byte OP_JUMP_IF_NOT_LESS_RK = 0x49; //register (left), const (right), jump
 
   //C_OpCode()
   private C_OpCode() {}
+
+  //hasWideOperand(byte)
+  //Whether the (first) operand of the given opcode is two bytes wide.
+  public static boolean hasWideOperand(byte code) {
+    switch (code) {
+      case OP_ARRAY:
+      case OP_CLOSURE:
+      case OP_COMPILE:
+      case OP_CONSTANT:
+      case OP_CONSTANT_ADD:
+      case OP_CONSTANT_ADD_NUM:
+      case OP_CONSTANT_ADD_STR:
+      case OP_DEF_GLOBAL:
+      case OP_FIELD:
+      case OP_GET_FIELD_CACHED:
+      case OP_GET_FIELD_SLOT:
+      case OP_GET_GLOBAL:
+      case OP_GET_METHOD_CACHED:
+      case OP_GET_PROP:
+      case OP_GET_SUPER:
+      case OP_GET_THIS_FIELD:
+      case OP_GET_THIS_FIELD_CACHED:
+      case OP_GET_THIS_METHOD_CACHED:
+      case OP_GET_THIS_PROP:
+      case OP_INVOKE:
+      case OP_JUMP:
+      case OP_JUMP_IF_FALSE:
+      case OP_JUMP_IF_FALSE_POP:
+      case OP_LOOP:
+      case OP_MAPPING:
+      case OP_METHOD:
+      case OP_OBJECT:
+      case OP_SET_FIELD_SLOT:
+      case OP_SET_GLOBAL:
+      case OP_SET_GLOBAL_POP:
+      case OP_SET_PROP:
+      case OP_SUPER_INVOKE:
+      case OP_TAIL_INVOKE:
+        return true;
+      default:
+        return false;
+    }
+  }
 }
@@ -0,0 +1,444 @@
+package jbLPC.compiler;
+
+import static jbLPC.compiler.C_OpCode.OP_ADD;
+import static jbLPC.compiler.C_OpCode.OP_ADD_RK;
+import static jbLPC.compiler.C_OpCode.OP_ADD_RR;
+import static jbLPC.compiler.C_OpCode.OP_CALL;
+import static jbLPC.compiler.C_OpCode.OP_CLOSURE;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT_ADD;
+import static jbLPC.compiler.C_OpCode.OP_DIVIDE;
+import static jbLPC.compiler.C_OpCode.OP_DIVIDE_RR;
+import static jbLPC.compiler.C_OpCode.OP_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_GET_FIELD_SLOT;
+import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL;
+import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL_GET_LOCAL_ADD;
+import static jbLPC.compiler.C_OpCode.OP_GET_PROP;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_FIELD;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_PROP;
+import static jbLPC.compiler.C_OpCode.OP_GET_UPVAL;
+import static jbLPC.compiler.C_OpCode.OP_GREATER;
+import static jbLPC.compiler.C_OpCode.OP_GREATER_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_INVOKE;
+import static jbLPC.compiler.C_OpCode.OP_JUMP;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_FALSE;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_FALSE_POP;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_NOT_LESS_RK;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_NOT_LESS_RR;
+import static jbLPC.compiler.C_OpCode.OP_LESS;
+import static jbLPC.compiler.C_OpCode.OP_LESS_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_LOADK;
+import static jbLPC.compiler.C_OpCode.OP_LOOP;
+import static jbLPC.compiler.C_OpCode.OP_MOVE;
+import static jbLPC.compiler.C_OpCode.OP_MULTIPLY;
+import static jbLPC.compiler.C_OpCode.OP_MULTIPLY_RR;
+import static jbLPC.compiler.C_OpCode.OP_NOT;
+import static jbLPC.compiler.C_OpCode.OP_NOT_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_POP;
+import static jbLPC.compiler.C_OpCode.OP_SET_GLOBAL;
+import static jbLPC.compiler.C_OpCode.OP_SET_GLOBAL_POP;
+import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL;
+import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL_POP;
+import static jbLPC.compiler.C_OpCode.OP_SET_UPVAL;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT_RK;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT_RR;
+import static jbLPC.compiler.C_OpCode.OP_SUPER_INVOKE;
+import static jbLPC.compiler.C_OpCode.OP_TAIL_CALL;
+import static jbLPC.compiler.C_OpCode.OP_TAIL_INVOKE;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Peephole pass over a finished C_InstrList, fusing common opcode
+//sequences into superinstructions.  The sequences were picked from
+//dynamic pair counts (jbLPC.bench.OpcodeStats) over the benchmark
+//workloads, plus the fixed pairs BinaryParselet emits for >=, <=
+//and !=.
+//
+//For compilations built as register code, it first rewrites
+//statement-level sequences over locals into three-address register
+//ops (OP_ADD_RR and friends): the locals are the registers, already
+//allocated to frame slots by C_Scope, and the sequences matched are
+//those whose temporaries never outlive the statement.
+//
+//Fusion never spans a jump target, since a jump into the middle
+//of a superinstruction would land nowhere.  Fused code is never
+//longer than the original, so jumps are relocated afterwards
+//without any risk of overflowing their operands.
+public final class C_Peephole {
+  private boolean registers; //emit register ops
+  private List<Byte> codes;
+  private List<Object> constants;
+  private List<Integer> lines;
+
+  private boolean[] isTarget; //by old offset
+  private int[] relocated; //old offset -> new offset
+
+  private List<Byte> newCodes;
+  private List<Integer> newLines;
+  private List<int[]> jumps; //(new operand offset, old target, backward)
+
+  //C_Peephole(C_InstrList, boolean)
+  private C_Peephole(C_InstrList instrList, boolean registers) {
+    this.registers = registers;
+
+    codes = instrList.codes();
+    constants = instrList.constants();
+    lines = instrList.lines();
+  }
+
+  //optimize(C_InstrList)
+  public static void optimize(C_InstrList instrList) {
+    optimize(instrList, false);
+  }
+
+  //optimize(C_InstrList, boolean)
+  //As optimize(C_InstrList), emitting register ops if registers.
+  public static void optimize(C_InstrList instrList, boolean registers) {
+    new C_Peephole(instrList, registers).run(instrList);
+  }
+
+  //run(C_InstrList)
+  private void run(C_InstrList instrList) {
+    if (!findTargets())
+      return; //malformed (unpatched) jumps; leave the code alone
+
+    newCodes = new ArrayList<>(codes.size());
+    newLines = new ArrayList<>(codes.size());
+    jumps = new ArrayList<>();
+    relocated = new int[codes.size() + 1];
+
+    int offset = 0;
+
+    while (offset < codes.size()) {
+      int length = fuse(offset);
+
+      if (length == 0) { //no match; copy as is
+        length = length(offset);
+
+        relocated[offset] = newCodes.size();
+
+        if (isJump(code(offset)))
+          jump(code(offset), offset, target(offset));
+        else
+          copy(offset, length);
+      }
+
+      offset += length;
+    }
+
+    relocated[codes.size()] = newCodes.size();
+
+    //patch jumps with their targets' new offsets
+    for (int[] jump : jumps) {
+      int from = jump[0] + 2; //the jump operand ends its instruction
+      int to = relocated[jump[1]];
+      int operand = (jump[2] != 0) ? from - to : to - from;
+
+      newCodes.set(jump[0], (byte)((operand >> 8) & 0xFF));
+      newCodes.set(jump[0] + 1, (byte)(operand & 0xFF));
+    }
+
+    instrList.replaceCodes(newCodes, newLines);
+  }
+
+  //fuse(int)
+  //Emit a superinstruction for the sequence starting at offset,
+  //returning the sequence's length, or 0 if none matches.
+  private int fuse(int offset) {
+    if (registers) {
+      int length = fuseRegisters(offset);
+
+      if (length != 0)
+        return length;
+    }
+
+    byte code = code(offset);
+    int next = offset + length(offset);
+
+    if (next >= codes.size() || isTarget[next])
+      return 0;
+
+    byte nextCode = code(next);
+    int end = next + length(next);
+
+    switch (code) {
+      case OP_LESS:
+        if (nextCode == OP_NOT)
+          return emit(offset, end, OP_GREATER_EQUAL);
+
+        break;
+      case OP_GREATER:
+        if (nextCode == OP_NOT)
+          return emit(offset, end, OP_LESS_EQUAL);
+
+        break;
+      case OP_EQUAL:
+        if (nextCode == OP_NOT)
+          return emit(offset, end, OP_NOT_EQUAL);
+
+        break;
+      case OP_JUMP_IF_FALSE:
+        if (nextCode == OP_POP) {
+          relocated[offset] = newCodes.size();
+
+          jump(OP_JUMP_IF_FALSE_POP, offset, target(offset));
+
+          return end - offset;
+        }
+
+        break;
+      case OP_SET_GLOBAL:
+        if (nextCode == OP_POP)
+          return emit(offset, end, OP_SET_GLOBAL_POP, operands(offset));
+
+        break;
+      case OP_SET_LOCAL:
+        if (nextCode == OP_POP)
+          return emit(offset, end, OP_SET_LOCAL_POP, operands(offset));
+
+        break;
+      case OP_CONSTANT:
+        if (nextCode == OP_ADD)
+          return emit(offset, end, OP_CONSTANT_ADD, operands(offset));
+
+        break;
+      case OP_GET_LOCAL:
+        if (nextCode == OP_GET_LOCAL && end < codes.size() && !isTarget[end]
+          && code(end) == OP_ADD)
+          return emit(offset, end + 1, OP_GET_LOCAL_GET_LOCAL_ADD,
+            operands(offset), operands(next));
+
+        //the receiver is always local slot 0
+        if ((codes.get(offset + 1) & 0xFF) != 0)
+          break;
+
+        if (nextCode == OP_GET_PROP)
+          return emit(offset, end, OP_GET_THIS_PROP, operands(next));
+
+        if (nextCode == OP_GET_FIELD_SLOT)
+          return emit(offset, end, OP_GET_THIS_FIELD, operands(next));
+
+        break;
+    }
+
+    return 0;
+  }
+
+  //fuseRegisters(int)
+  //Emit a register op for the statement-level sequence starting at
+  //offset, returning the sequence's length, or 0 if none matches.
+  private int fuseRegisters(int offset) {
+    int[] seq = sequence(offset, 5);
+
+    if (seq != null && code(seq[0]) == OP_GET_LOCAL && code(seq[3]) == OP_SET_LOCAL
+      && code(seq[4]) == OP_POP) {
+      byte op = code(seq[2]);
+
+      //a = b op c;
+      if (code(seq[1]) == OP_GET_LOCAL && registerOp(op, false) != 0)
+        return emit(offset, seq[5], registerOp(op, false),
+          operands(seq[3]), operands(seq[0]), operands(seq[1]));
+
+      //a = b op k;
+      if (code(seq[1]) == OP_CONSTANT && registerOp(op, true) != 0)
+        return emit(offset, seq[5], registerOp(op, true),
+          operands(seq[3]), operands(seq[0]), operands(seq[1]));
+    }
+
+    //while (a < b), for (...; a < b; ...), if (a < b): the branch
+    //skips the OP_POP at its target, since no condition is stacked
+    if (seq != null && code(seq[0]) == OP_GET_LOCAL && code(seq[2]) == OP_LESS
+      && code(seq[3]) == OP_JUMP_IF_FALSE && code(seq[4]) == OP_POP
+      && code(target(seq[3])) == OP_POP) {
+      byte op = 0;
+
+      if (code(seq[1]) == OP_GET_LOCAL)
+        op = OP_JUMP_IF_NOT_LESS_RR;
+      else if (code(seq[1]) == OP_CONSTANT)
+        op = OP_JUMP_IF_NOT_LESS_RK;
+
+      if (op != 0) {
+        relocated[offset] = newCodes.size();
+
+        jump(op, offset, target(seq[3]) + 1, operands(seq[0]), operands(seq[1]));
+
+        return seq[5] - offset;
+      }
+    }
+
+    seq = sequence(offset, 3);
+
+    if (seq != null && code(seq[1]) == OP_SET_LOCAL && code(seq[2]) == OP_POP) {
+      //a = b;
+      if (code(seq[0]) == OP_GET_LOCAL)
+        return emit(offset, seq[3], OP_MOVE, operands(seq[1]), operands(seq[0]));
+
+      //a = k;
+      if (code(seq[0]) == OP_CONSTANT)
+        return emit(offset, seq[3], OP_LOADK, operands(seq[1]), operands(seq[0]));
+    }
+
+    return 0;
+  }
+
+  //registerOp(byte, boolean)
+  //The register form of arithmetic op, with a constant right
+  //operand if constant; 0 if there is none.
+  private static byte registerOp(byte op, boolean constant) {
+    switch (op) {
+      case OP_ADD:      return constant ? OP_ADD_RK : OP_ADD_RR;
+      case OP_SUBTRACT: return constant ? OP_SUBTRACT_RK : OP_SUBTRACT_RR;
+      case OP_MULTIPLY: return constant ? 0 : OP_MULTIPLY_RR;
+      case OP_DIVIDE:   return constant ? 0 : OP_DIVIDE_RR;
+      default:          return 0;
+    }
+  }
+
+  //sequence(int, int)
+  //Offsets of the n instructions starting at offset, followed by
+  //the offset just past them; null if they run off the end of the
+  //code or any but the first is a jump target.
+  private int[] sequence(int offset, int n) {
+    int[] seq = new int[n + 1];
+
+    seq[0] = offset;
+
+    for (int i = 1; i <= n; i++) {
+      if (seq[i - 1] >= codes.size())
+        return null;
+
+      seq[i] = seq[i - 1] + length(seq[i - 1]);
+
+      if (i < n && (seq[i] >= codes.size() || isTarget[seq[i]]))
+        return null;
+    }
+
+    return seq;
+  }
+
+  //emit(int, int, byte, byte[]...)
+  //Replace codes [offset, end) with code and the given operands.
+  private int emit(int offset, int end, byte code, byte[]... operands) {
+    int line = lines.get(offset);
+
+    relocated[offset] = newCodes.size();
+
+    add(code, line);
+
+    for (byte[] operand : operands)
+      for (byte b : operand)
+        add(b, line);
+
+    return end - offset;
+  }
+
+  //jump(byte, int, int, byte[]...)
+  //Emit a jump to oldTarget's new offset, the jump operand following
+  //any given operands.
+  private void jump(byte code, int offset, int oldTarget, byte[]... operands) {
+    int line = lines.get(offset);
+
+    add(code, line);
+
+    for (byte[] operand : operands)
+      for (byte b : operand)
+        add(b, line);
+
+    jumps.add(new int[] { newCodes.size(), oldTarget, (code == OP_LOOP) ? 1 : 0 });
+
+    add((byte)0xFF, line); //patched in run()
+    add((byte)0xFF, line);
+  }
+
+  //copy(int, int)
+  private void copy(int offset, int length) {
+    for (int i = offset; i < offset + length; i++)
+      add(codes.get(i), lines.get(i));
+  }
+
+  //add(byte, int)
+  private void add(byte code, int line) {
+    newCodes.add(code);
+    newLines.add(line);
+  }
+
+  //operands(int)
+  private byte[] operands(int offset) {
+    byte[] operands = new byte[length(offset) - 1];
+
+    for (int i = 0; i < operands.length; i++)
+      operands[i] = codes.get(offset + 1 + i);
+
+    return operands;
+  }
+
+  //findTargets()
+  //Mark every jump target; false if any jump lands outside the code.
+  private boolean findTargets() {
+    isTarget = new boolean[codes.size() + 1];
+
+    for (int offset = 0; offset < codes.size(); offset += length(offset)) {
+      if (!isJump(code(offset)))
+        continue;
+
+      int target = target(offset);
+
+      if (target < 0 || target > codes.size())
+        return false;
+
+      isTarget[target] = true;
+
+      //a register branch may land just past its target's OP_POP
+      if (registers && target < codes.size() && code(target) == OP_POP)
+        isTarget[target + 1] = true;
+    }
+
+    return true;
+  }
+
+  //target(int)
+  //Old offset a jump at offset lands on.
+  private int target(int offset) {
+    int operand = ((codes.get(offset + 1) & 0xFF) << 8) | (codes.get(offset + 2) & 0xFF);
+
+    return (code(offset) == OP_LOOP) ? offset + 3 - operand : offset + 3 + operand;
+  }
+
+  //isJump(byte)
+  private boolean isJump(byte code) {
+    return code == OP_JUMP || code == OP_JUMP_IF_FALSE || code == OP_LOOP;
+  }
+
+  //code(int)
+  private byte code(int offset) {
+    return codes.get(offset);
+  }
+
+  //length(int)
+  //Length in bytes, operands included, of the instruction at offset.
+  private int length(int offset) {
+    byte code = code(offset);
+
+    switch (code) {
+      case OP_CALL:
+      case OP_GET_LOCAL:
+      case OP_GET_UPVAL:
+      case OP_SET_LOCAL:
+      case OP_SET_UPVAL:
+      case OP_TAIL_CALL:
+        return 2;
+      case OP_INVOKE:
+      case OP_SUPER_INVOKE:
+      case OP_TAIL_INVOKE:
+        return 4;
+      case OP_CLOSURE:
+        int index = ((codes.get(offset + 1) & 0xFF) << 8) | (codes.get(offset + 2) & 0xFF);
+
+        return 3 + (2 * ((C_Function)constants.get(index)).upvalueCount());
+      default:
+        return C_OpCode.hasWideOperand(code) ? 3 : 1;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package jbLPC.compiler;
+
+import static jbLPC.scanner.TokenType.TOKEN_INHERIT;
+import static jbLPC.scanner.TokenType.TOKEN_STRING;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import jbLPC.debug.Debugger;
+import jbLPC.scanner.Scanner;
+import jbLPC.scanner.Token;
+import jbLPC.util.SourceFile;
+
+//Compiles every object program under a lib directory, in parallel,
+//into C_ProgramTable, so that a VM started afterwards finds them
+//compiled.  Compiling has no VM side effects; the one ordering
+//constraint is that an inherited program be compiled before the
+//programs inheriting it.  So files are first read and scanned for
+//their inherit declarations, then compiled in waves: a file's wave
+//is one past the latest wave of anything it inherits, and each
+//wave is compiled across all workers.
+public class C_Precompiler {
+  private static final String[] SUFFIXES = { ".c", ".lpc" };
+
+  private Debugger debugger;
+  private String libPath;
+  private boolean registerCode;
+
+  //C_Precompiler(Debugger, String)
+  public C_Precompiler(Debugger debugger, String libPath) {
+    this.debugger = debugger;
+    this.libPath = libPath;
+  }
+
+  //setRegisterCode(boolean)
+  //Build register code rather than pure stack code.
+  public void setRegisterCode(boolean registerCode) {
+    this.registerCode = registerCode;
+  }
+
+  //precompile()
+  //Compile every object program under the lib path, with one
+  //worker per core.  Returns the paths that failed to compile.
+  public List<Path> precompile() throws IOException {
+    return precompile(Runtime.getRuntime().availableProcessors());
+  }
+
+  //precompile(int)
+  public List<Path> precompile(int parallelism) throws IOException {
+    Path root = Paths.get(libPath);
+    List<String> objectPaths;
+
+    try (Stream<Path> walk = Files.walk(root)) {
+      objectPaths = walk
+        .filter(Files::isRegularFile)
+        .filter(this::isSource)
+        .map(file -> objectPath(root, file))
+        .collect(Collectors.toList());
+    }
+
+    debugger.printProgress("Precompiling " + objectPaths.size() + " object(s)");
+
+    ConcurrentLinkedQueue<Path> failed = new ConcurrentLinkedQueue<>();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+    try {
+      //read and scan every file
+      List<Unit> units = pool.submit(() ->
+        objectPaths.parallelStream().map(this::unit).collect(Collectors.toList())
+      ).get();
+
+      for (List<Unit> wave : waves(units).values())
+        pool.submit(() ->
+          wave.parallelStream().forEach(unit -> {
+            C_ObjectCompiler compiler = new C_ObjectCompiler(debugger, libPath);
+
+            compiler.setRegisterCode(registerCode);
+
+            if (compiler.compile(unit.path, unit.prefix, unit.source) == null)
+              failed.add(unit.path);
+          })
+        ).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+
+    return new ArrayList<>(failed);
+  }
+
+  //unit(String)
+  private Unit unit(String objectPath) {
+    SourceFile file = new SourceFile(libPath + objectPath);
+    String source = file.source();
+    List<Path> inherits = new ArrayList<>();
+
+    for (String superPath : inherits(source))
+      inherits.add(Paths.get(new SourceFile(libPath + superPath).path()));
+
+    return new Unit(Paths.get(file.path()), file.prefix(), source, inherits);
+  }
+
+  //waves(List<Unit>)
+  //Group units by wave, in wave order.
+  private Map<Integer, List<Unit>> waves(List<Unit> units) {
+    Map<Path, Unit> byPath = new HashMap<>();
+    Map<Integer, List<Unit>> waves = new TreeMap<>();
+
+    for (Unit unit : units)
+      byPath.put(unit.path, unit);
+
+    for (Unit unit : units)
+      waves.computeIfAbsent(wave(unit, byPath), wave -> new ArrayList<>()).add(unit);
+
+    return waves;
+  }
+
+  //wave(Unit, Map<Path, Unit>)
+  private int wave(Unit unit, Map<Path, Unit> byPath) {
+    if (unit.wave >= 0)
+      return unit.wave;
+
+    //an inheritance cycle; its members fail to compile wherever
+    //they go
+    if (unit.wave == Unit.VISITING)
+      return 0;
+
+    unit.wave = Unit.VISITING;
+
+    int wave = 0;
+
+    for (Path superPath : unit.inherits) {
+      Unit superUnit = byPath.get(superPath);
+
+      //anything outside the lib path is compiled as it is reached
+      if (superUnit != null)
+        wave = Math.max(wave, wave(superUnit, byPath) + 1);
+    }
+
+    unit.wave = wave;
+
+    return wave;
+  }
+
+  //inherits(String)
+  //The object paths a source inherits.  Inherit declarations must
+  //come first, so the scan stops at the first other token.
+  private List<String> inherits(String source) {
+    List<String> inherits = new ArrayList<>();
+    Scanner scanner = new Scanner(debugger, source);
+
+    while (scanner.hasNext()) {
+      Token token = scanner.next();
+
+      if (token.type() != TOKEN_INHERIT || !scanner.hasNext())
+        break;
+
+      token = scanner.next();
+
+      if (token.type() != TOKEN_STRING)
+        break;
+
+      inherits.add((String)token.literal());
+    }
+
+    return inherits;
+  }
+
+  //objectPath(Path, Path)
+  //The path by which LPC code names file, e.g. "/std/room.c".
+  private String objectPath(Path root, Path file) {
+    StringBuilder sb = new StringBuilder();
+
+    for (Path part : root.relativize(file))
+      sb.append("/").append(part);
+
+    return sb.toString();
+  }
+
+  //isSource(Path)
+  private boolean isSource(Path file) {
+    String name = file.getFileName().toString();
+
+    for (String suffix : SUFFIXES)
+      if (name.endsWith(suffix))
+        return true;
+
+    return false;
+  }
+
+  //A source file, read and scanned.
+  private static class Unit {
+    private static final int UNSET = -1;
+    private static final int VISITING = -2;
+
+    private final Path path;
+    private final String prefix;
+    private final String source;
+    private final List<Path> inherits;
+    private int wave = UNSET;
+
+    //Unit(Path, String, String, List<Path>)
+    private Unit(Path path, String prefix, String source, List<Path> inherits) {
+      this.path = path;
+      this.prefix = prefix;
+      this.source = source;
+      this.inherits = inherits;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package jbLPC.compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+//On-disk cache of compiled object programs, one file per source
+//path.  An entry is used only if the compiler version, the hash of
+//the source, and the hash of every file the program depends on
+//(includes and inherited sources) all still match, and the entry
+//was built as the same kind of code (stack or register).
+public class C_ProgramCache {
+  //Bump whenever code generation or the opcode set changes.
+  public static final int COMPILER_VERSION = 5;
+
+  private static final int MAGIC = 0x4A424C43; //"JBLC"
+  private static final String SUFFIX = ".lpcc";
+
+  //constant tags
+  private static final byte TAG_NIL = 0;
+  private static final byte TAG_STRING = 1;
+  private static final byte TAG_INT = 2;
+  private static final byte TAG_FLOAT = 3;
+  private static final byte TAG_BOOLEAN = 4;
+  private static final byte TAG_FUNCTION = 5;
+
+  private Path cacheDir;
+
+  //C_ProgramCache(Path)
+  public C_ProgramCache(Path cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  //load(Path, String, boolean)
+  //Return the cached program for the source at path, or null if
+  //there is no valid entry built as registerCode.
+  public C_ObjectCompilation load(Path path, String source, boolean registerCode) {
+    Path file = entryFile(path, registerCode);
+
+    if (!Files.isRegularFile(file))
+      return null;
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (buf.getInt() != MAGIC || buf.getInt() != COMPILER_VERSION)
+        return null;
+
+      if ((buf.get() != 0) != registerCode)
+        return null;
+
+      if (!readString(buf).equals(hash(source)))
+        return null;
+
+      int depCount = buf.getInt();
+      List<Path> dependencies = new ArrayList<>(depCount);
+
+      for (int i = 0; i < depCount; i++) {
+        Path dependency = Paths.get(readString(buf));
+
+        if (!readString(buf).equals(hashFile(dependency)))
+          return null;
+
+        dependencies.add(dependency);
+      }
+
+      String superPath = readString(buf);
+      C_ObjectCompilation program = new C_ObjectCompilation(readString(buf));
+
+      int fieldCount = buf.getInt();
+
+      for (int i = 0; i < fieldCount; i++)
+        program.addField(readString(buf));
+
+      for (Path dependency : dependencies)
+        program.addDependency(dependency);
+
+      if (!superPath.isEmpty())
+        program.setSuperPath(superPath);
+
+      readInstrList(buf, program.instrList());
+
+      return program;
+    } catch (IOException | RuntimeException e) {
+      return null; //unreadable or truncated; recompile
+    }
+  }
+
+  //store(Path, String, C_ObjectCompilation, boolean)
+  //Write program's entry, built as registerCode.  Failures only
+  //cost a later recompile.
+  public void store(Path path, String source, C_ObjectCompilation program, boolean registerCode) {
+    Path file = entryFile(path, registerCode);
+
+    try {
+      Files.createDirectories(cacheDir);
+
+      Path temp = Files.createTempFile(cacheDir, "entry", ".tmp");
+
+      try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(COMPILER_VERSION);
+        out.writeBoolean(registerCode);
+
+        writeString(out, hash(source));
+
+        out.writeInt(program.dependencies().size());
+
+        for (Path dependency : program.dependencies()) {
+          writeString(out, dependency.toString());
+          writeString(out, hashFile(dependency));
+        }
+
+        writeString(out, program.superPath() == null ? "" : program.superPath());
+        writeString(out, program.name());
+
+        out.writeInt(program.fieldCount());
+
+        for (int i = 0; i < program.fieldCount(); i++)
+          writeString(out, program.fieldName(i));
+
+        writeInstrList(out, program.instrList());
+      } catch (IOException e) {
+        Files.deleteIfExists(temp);
+
+        throw e;
+      }
+
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      //leave the cache as it was
+    }
+  }
+
+  //entryFile(Path, boolean)
+  //Stack and register builds of a path get files of their own.
+  private Path entryFile(Path path, boolean registerCode) {
+    String name = hash(path.toAbsolutePath().toString());
+
+    return cacheDir.resolve(registerCode ? name + "-reg" + SUFFIX : name + SUFFIX);
+  }
+
+  //writeInstrList(DataOutputStream, C_InstrList)
+  private void writeInstrList(DataOutputStream out, C_InstrList instrList) throws IOException {
+    List<Byte> codes = instrList.codes();
+    List<Integer> lines = instrList.lines();
+
+    out.writeInt(codes.size());
+
+    for (int i = 0; i < codes.size(); i++) {
+      out.writeByte(codes.get(i));
+      out.writeInt(lines.get(i));
+    }
+
+    out.writeInt(instrList.constants().size());
+
+    for (Object constant : instrList.constants())
+      writeConstant(out, constant);
+  }
+
+  //readInstrList(ByteBuffer, C_InstrList)
+  private void readInstrList(ByteBuffer buf, C_InstrList instrList) {
+    int codeCount = buf.getInt();
+
+    for (int i = 0; i < codeCount; i++) {
+      byte code = buf.get();
+
+      instrList.addCode(code, buf.getInt());
+    }
+
+    int constantCount = buf.getInt();
+
+    for (int i = 0; i < constantCount; i++)
+      instrList.addConstant(readConstant(buf));
+
+    instrList.compact();
+  }
+
+  //writeConstant(DataOutputStream, Object)
+  private void writeConstant(DataOutputStream out, Object constant) throws IOException {
+    if (constant == null)
+      out.writeByte(TAG_NIL);
+    else if (constant instanceof String) {
+      out.writeByte(TAG_STRING);
+      writeString(out, (String)constant);
+    } else if (constant instanceof Long) {
+      out.writeByte(TAG_INT);
+      out.writeLong((Long)constant);
+    } else if (constant instanceof Double) {
+      out.writeByte(TAG_FLOAT);
+      out.writeDouble((Double)constant);
+    } else if (constant instanceof Boolean) {
+      out.writeByte(TAG_BOOLEAN);
+      out.writeBoolean((Boolean)constant);
+    } else if (constant instanceof C_Function) {
+      C_Function function = (C_Function)constant;
+
+      out.writeByte(TAG_FUNCTION);
+      writeString(out, function.name());
+      out.writeInt(function.arity());
+      out.writeInt(function.upvalueCount());
+      writeInstrList(out, function.instrList());
+    } else
+      throw new IOException("Cannot cache constant " + constant + ".");
+  }
+
+  //readConstant(ByteBuffer)
+  private Object readConstant(ByteBuffer buf) {
+    byte tag = buf.get();
+
+    switch (tag) {
+      case TAG_NIL:
+        return null;
+      case TAG_STRING:
+        return readString(buf);
+      case TAG_INT:
+        return buf.getLong();
+      case TAG_FLOAT:
+        return buf.getDouble();
+      case TAG_BOOLEAN:
+        return buf.get() != 0;
+      case TAG_FUNCTION:
+        C_Function function = new C_Function(readString(buf));
+
+        function.setArity(buf.getInt());
+        function.setUpvalueCount(buf.getInt());
+
+        readInstrList(buf, function.instrList());
+
+        return function;
+      default:
+        throw new IllegalStateException("Unknown constant tag " + tag + ".");
+    }
+  }
+
+  //writeString(DataOutputStream, String)
+  private void writeString(DataOutputStream out, String str) throws IOException {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  //readString(ByteBuffer)
+  private String readString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+
+    buf.get(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  //hashFile(Path)
+  private String hashFile(Path path) throws IOException {
+    return hash(Files.readAllBytes(path));
+  }
+
+  //hash(String)
+  private String hash(String str) {
+    return hash(str.getBytes(StandardCharsets.UTF_8));
+  }
+
+  //hash(byte[])
+  private String hash(byte[] bytes) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+      StringBuilder sb = new StringBuilder();
+
+      for (byte b : digest)
+        sb.append(String.format("%02x", b));
+
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); //every JVM has SHA-256
+    }
+  }
+}
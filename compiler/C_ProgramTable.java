@@ -0,0 +1,424 @@
+package jbLPC.compiler;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import jbLPC.util.Prefs;
+
+//Process-wide table of compiled object programs, by source path
+//and kind of code (stack or register), shared by every VM on every
+//thread.
+//
+//Each path is compiled by one thread at a time; any other thread
+//asking for it meanwhile waits for that compile rather than
+//starting its own.  A program is kept only through a
+//SoftReference, so programs nothing else refers to any more can
+//be reclaimed under memory pressure (least recently used first, by
+//the JVM's soft reference policy) and are simply compiled again
+//when next asked for.  Besides objects, the inline caches of call
+//sites that have seen a program's objects refer to it, for as long
+//as it is in the table.  An entry is dropped, its program retired
+//(so that inline caches let go of it, see
+//C_ObjectCompilation.retire()) and recompiled, once the
+//modification time or size of its source or of any file it
+//depends on (includes, inherited sources) changes.
+//Those files are checked at most once per check interval per entry
+//(PROGRAM_CHECK_INTERVAL, in ms; 0 checks on every hit); sooner
+//than that, only invalidate(Path) drops an entry.
+//
+//The table also holds the process's disk cache of programs (see
+//C_ProgramCache), set up once from the PATH_CACHE pref.
+public final class C_ProgramTable {
+  public static final long DEFAULT_CHECK_INTERVAL = 1000L; //ms
+
+  private static final C_ProgramTable instance = new C_ProgramTable();
+
+  private Map<Key, Entry> entries;
+  private volatile long checkInterval; //ns between checks of an entry's files
+  private volatile C_ProgramCache diskCache; //null if disabled
+  private Map<Thread, Entry> waiting; //threads blocked on another's compile
+
+  //counters
+  private LongAdder hits; //served from the table, waits included
+  private LongAdder misses; //compiled (or loaded from disk) here
+  private LongAdder invalidations; //dropped as out of date
+  private LongAdder evictions; //found reclaimed by the GC
+  private LongAdder failures; //compiles that produced nothing
+  private LongAdder compileNanos; //spent building programs
+
+  //C_ProgramTable()
+  private C_ProgramTable() {
+    entries = new ConcurrentHashMap<>();
+    waiting = new ConcurrentHashMap<>();
+
+    setCheckInterval(Prefs.instance().getLong("PROGRAM_CHECK_INTERVAL", DEFAULT_CHECK_INTERVAL));
+
+    String cachePath = Prefs.instance().getString("PATH_CACHE");
+
+    if (cachePath != null)
+      diskCache = new C_ProgramCache(Paths.get(cachePath));
+
+    hits = new LongAdder();
+    misses = new LongAdder();
+    invalidations = new LongAdder();
+    evictions = new LongAdder();
+    failures = new LongAdder();
+    compileNanos = new LongAdder();
+  }
+
+  //instance()
+  public static C_ProgramTable instance() {
+    return instance;
+  }
+
+  //get(Path, boolean, Supplier<C_ObjectCompilation>)
+  //Return the program for the source at path, built as registerCode,
+  //calling compiler to build it if the table has no current one.
+  //Returns null if the compile fails, or if it would wait on itself
+  //(an inheritance cycle spanning threads).
+  public C_ObjectCompilation get(Path path, boolean registerCode, Supplier<C_ObjectCompilation> compiler) {
+    Key key = new Key(path, registerCode);
+
+    for (;;) {
+      Entry entry = entries.get(key);
+
+      if (entry == null) {
+        Entry mine = new Entry();
+        entry = entries.putIfAbsent(key, mine);
+
+        if (entry == null)
+          return compile(key, mine, compiler);
+      }
+
+      if (entry.latch.getCount() != 0 && !await(entry))
+        return null;
+
+      if (entry.failed)
+        return null;
+
+      C_ObjectCompilation program = entry.ref.get();
+
+      if (program == null) {
+        evictions.increment();
+
+        entries.remove(key, entry);
+      } else if (!entry.isCurrent(checkInterval)) {
+        invalidations.increment();
+
+        if (entries.remove(key, entry))
+          program.retire();
+      } else {
+        hits.increment();
+
+        return program;
+      }
+    }
+  }
+
+  //compile(Key, Entry, Supplier<C_ObjectCompilation>)
+  private C_ObjectCompilation compile(Key key, Entry entry, Supplier<C_ObjectCompilation> compiler) {
+    C_ObjectCompilation program = null;
+
+    misses.increment();
+
+    //stamp the source before reading it, so that an edit made
+    //during the compile still invalidates the entry
+    Stamp sourceStamp = Stamp.of(key.path);
+    long start = System.nanoTime();
+
+    try {
+      program = compiler.get();
+    } finally {
+      compileNanos.add(System.nanoTime() - start);
+
+      if (program == null) {
+        failures.increment();
+
+        entry.failed = true;
+
+        entries.remove(key, entry);
+      } else {
+        entry.stamps.add(sourceStamp);
+
+        for (Path dependency : program.dependencies())
+          entry.stamps.add(Stamp.of(dependency));
+
+        entry.ref = new SoftReference<>(program);
+        entry.checkedAt = System.nanoTime();
+      }
+
+      entry.latch.countDown();
+    }
+
+    return program;
+  }
+
+  //await(Entry)
+  //Wait for another thread's compile of entry.  False, without
+  //waiting, if that thread is itself (transitively) waiting on
+  //this one.
+  private boolean await(Entry entry) {
+    Thread self = Thread.currentThread();
+
+    //register first, so that of two threads closing a cycle at
+    //the same time, at least the second sees it
+    waiting.put(self, entry);
+
+    try {
+      Thread owner = entry.owner;
+
+      for (int i = 0; owner != null && i <= waiting.size(); i++) {
+        if (owner == self)
+          return false;
+
+        Entry next = waiting.get(owner);
+
+        owner = (next == null) ? null : next.owner;
+      }
+
+      //lets a fork-join pool (see C_Precompiler) add a worker
+      //while this one is blocked
+      ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+        @Override
+        public boolean block() throws InterruptedException {
+          entry.latch.await();
+
+          return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+          return entry.latch.getCount() == 0;
+        }
+      });
+
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      return false;
+    } finally {
+      waiting.remove(self);
+    }
+  }
+
+  //setCheckInterval(long)
+  //How long, in ms, a hit may go on trusting an entry before its
+  //files are checked again; 0 checks them on every hit.
+  public void setCheckInterval(long millis) {
+    checkInterval = Math.max(0, millis) * 1_000_000L;
+  }
+
+  //diskCache()
+  public C_ProgramCache diskCache() {
+    return diskCache;
+  }
+
+  //setDiskCache(C_ProgramCache)
+  //Replace the disk cache for the whole process; null disables it.
+  public void setDiskCache(C_ProgramCache cache) {
+    diskCache = cache;
+  }
+
+  //invalidate(Path)
+  //Drop the programs for path, if any, of either kind of code; they
+  //are recompiled when next asked for.
+  public void invalidate(Path path) {
+    drop(new Key(path, false));
+    drop(new Key(path, true));
+  }
+
+  //drop(Key)
+  private void drop(Key key) {
+    Entry entry = entries.remove(key);
+
+    if (entry == null)
+      return;
+
+    invalidations.increment();
+
+    entry.retire();
+  }
+
+  //clear()
+  //Drop, and retire, every program.
+  public void clear() {
+    for (Key key : entries.keySet()) {
+      Entry entry = entries.remove(key);
+
+      if (entry != null)
+        entry.retire();
+    }
+  }
+
+  //size()
+  public int size() {
+    return entries.size();
+  }
+
+  //hits()
+  public long hits() {
+    return hits.sum();
+  }
+
+  //misses()
+  public long misses() {
+    return misses.sum();
+  }
+
+  //invalidations()
+  public long invalidations() {
+    return invalidations.sum();
+  }
+
+  //evictions()
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  //failures()
+  public long failures() {
+    return failures.sum();
+  }
+
+  //compileNanos()
+  public long compileNanos() {
+    return compileNanos.sum();
+  }
+
+  //toString()
+  @Override
+  public String toString() {
+    return
+      "programs: " + size() +
+      ", hits: " + hits() +
+      ", misses: " + misses() +
+      ", invalidations: " + invalidations() +
+      ", evictions: " + evictions() +
+      ", failures: " + failures() +
+      ", compile ms: " + compileNanos() / 1_000_000;
+  }
+
+  //A source path and the kind of code its program is built as.
+  private static class Key {
+    private final Path path;
+    private final boolean registerCode;
+
+    //Key(Path, boolean)
+    private Key(Path path, boolean registerCode) {
+      this.path = path;
+      this.registerCode = registerCode;
+    }
+
+    //equals(Object)
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key))
+        return false;
+
+      Key key = (Key)other;
+
+      return registerCode == key.registerCode && path.equals(key.path);
+    }
+
+    //hashCode()
+    @Override
+    public int hashCode() {
+      return path.hashCode() * 31 + Boolean.hashCode(registerCode);
+    }
+  }
+
+  //A path's program, or the compile that will produce it.
+  private static class Entry {
+    private final Thread owner = Thread.currentThread(); //compiling thread
+    private final CountDownLatch latch = new CountDownLatch(1); //open once compiled
+    private final List<Stamp> stamps = new ArrayList<>(); //source, then dependencies
+
+    //written before the latch opens, read after
+    private SoftReference<C_ObjectCompilation> ref;
+    private boolean failed;
+
+    private volatile long checkedAt; //nanoTime of the last check of stamps
+
+    //retire()
+    //Retire the program, if it was built and is still reachable.
+    private void retire() {
+      C_ObjectCompilation program = (latch.getCount() == 0 && ref != null) ? ref.get() : null;
+
+      if (program != null)
+        program.retire();
+    }
+
+    //isCurrent(long)
+    //Whether no file the program was compiled from has changed, as
+    //last checked no more than interval ns ago.
+    private boolean isCurrent(long interval) {
+      long now = System.nanoTime();
+
+      if (now - checkedAt < interval)
+        return true;
+
+      for (Stamp stamp : stamps)
+        if (!stamp.equals(Stamp.of(stamp.path)))
+          return false;
+
+      checkedAt = now;
+
+      return true;
+    }
+  }
+
+  //A file's modification time and size, as of some moment.
+  private static class Stamp {
+    private final Path path;
+    private final long modified; //ms; -1 if unreadable
+    private final long size;
+
+    //Stamp(Path, long, long)
+    private Stamp(Path path, long modified, long size) {
+      this.path = path;
+      this.modified = modified;
+      this.size = size;
+    }
+
+    //of(Path)
+    private static Stamp of(Path path) {
+      try {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+
+        return new Stamp(path, attrs.lastModifiedTime().toMillis(), attrs.size());
+      } catch (IOException e) {
+        return new Stamp(path, -1, -1);
+      }
+    }
+
+    //equals(Object)
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Stamp))
+        return false;
+
+      Stamp stamp = (Stamp)other;
+
+      return modified == stamp.modified && size == stamp.size;
+    }
+
+    //hashCode()
+    @Override
+    public int hashCode() {
+      return Long.hashCode(modified) * 31 + Long.hashCode(size);
+    }
+  }
+}
@@ -1,49 +1,82 @@
 package jbLPC.debug;
 
 import static jbLPC.compiler.C_OpCode.OP_ADD;
+import static jbLPC.compiler.C_OpCode.OP_ADD_NUM;
+import static jbLPC.compiler.C_OpCode.OP_ADD_RK;
+import static jbLPC.compiler.C_OpCode.OP_ADD_RR;
+import static jbLPC.compiler.C_OpCode.OP_ADD_STR;
 import static jbLPC.compiler.C_OpCode.OP_ARRAY;
 import static jbLPC.compiler.C_OpCode.OP_CALL;
 import static jbLPC.compiler.C_OpCode.OP_CLOSE_UPVAL;
 import static jbLPC.compiler.C_OpCode.OP_CLOSURE;
 import static jbLPC.compiler.C_OpCode.OP_COMPILE;
 import static jbLPC.compiler.C_OpCode.OP_CONSTANT;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT_ADD;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT_ADD_NUM;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT_ADD_STR;
 import static jbLPC.compiler.C_OpCode.OP_DEF_GLOBAL;
 import static jbLPC.compiler.C_OpCode.OP_DIVIDE;
+import static jbLPC.compiler.C_OpCode.OP_DIVIDE_RR;
 import static jbLPC.compiler.C_OpCode.OP_EQUAL;
 import static jbLPC.compiler.C_OpCode.OP_FALSE;
 import static jbLPC.compiler.C_OpCode.OP_FIELD;
+import static jbLPC.compiler.C_OpCode.OP_GET_FIELD_CACHED;
+import static jbLPC.compiler.C_OpCode.OP_GET_FIELD_SLOT;
 import static jbLPC.compiler.C_OpCode.OP_GET_GLOBAL;
 import static jbLPC.compiler.C_OpCode.OP_GET_ITEM;
 import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL;
+import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL_GET_LOCAL_ADD;
+import static jbLPC.compiler.C_OpCode.OP_GET_METHOD_CACHED;
 import static jbLPC.compiler.C_OpCode.OP_GET_PROP;
 import static jbLPC.compiler.C_OpCode.OP_GET_SUPER;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_FIELD;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_FIELD_CACHED;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_METHOD_CACHED;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_PROP;
 import static jbLPC.compiler.C_OpCode.OP_GET_UPVAL;
 import static jbLPC.compiler.C_OpCode.OP_GREATER;
+import static jbLPC.compiler.C_OpCode.OP_GREATER_EQUAL;
 import static jbLPC.compiler.C_OpCode.OP_INHERIT;
 import static jbLPC.compiler.C_OpCode.OP_INVOKE;
 import static jbLPC.compiler.C_OpCode.OP_JUMP;
 import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_FALSE;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_FALSE_POP;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_NOT_LESS_RK;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_NOT_LESS_RR;
 import static jbLPC.compiler.C_OpCode.OP_LESS;
+import static jbLPC.compiler.C_OpCode.OP_LESS_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_LOADK;
 import static jbLPC.compiler.C_OpCode.OP_LOOP;
 import static jbLPC.compiler.C_OpCode.OP_MAPPING;
 import static jbLPC.compiler.C_OpCode.OP_METHOD;
+import static jbLPC.compiler.C_OpCode.OP_MOVE;
 import static jbLPC.compiler.C_OpCode.OP_MULTIPLY;
+import static jbLPC.compiler.C_OpCode.OP_MULTIPLY_RR;
 import static jbLPC.compiler.C_OpCode.OP_NEGATE;
 import static jbLPC.compiler.C_OpCode.OP_NIL;
 import static jbLPC.compiler.C_OpCode.OP_NOT;
+import static jbLPC.compiler.C_OpCode.OP_NOT_EQUAL;
 import static jbLPC.compiler.C_OpCode.OP_OBJECT;
 import static jbLPC.compiler.C_OpCode.OP_POP;
 import static jbLPC.compiler.C_OpCode.OP_RETURN;
+import static jbLPC.compiler.C_OpCode.OP_SET_FIELD_SLOT;
 import static jbLPC.compiler.C_OpCode.OP_SET_GLOBAL;
+import static jbLPC.compiler.C_OpCode.OP_SET_GLOBAL_POP;
 import static jbLPC.compiler.C_OpCode.OP_SET_ITEM;
 import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL;
+import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL_POP;
 import static jbLPC.compiler.C_OpCode.OP_SET_PROP;
 import static jbLPC.compiler.C_OpCode.OP_SET_UPVAL;
 import static jbLPC.compiler.C_OpCode.OP_SUBTRACT;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT_RK;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT_RR;
 import static jbLPC.compiler.C_OpCode.OP_SUPER_INVOKE;
+import static jbLPC.compiler.C_OpCode.OP_TAIL_CALL;
+import static jbLPC.compiler.C_OpCode.OP_TAIL_INVOKE;
 import static jbLPC.compiler.C_OpCode.OP_TRUE;
 
-import java.util.List;
+
+import java.util.HashMap;
 import java.util.Map;
 
 import jbLPC.compiler.C_Compilation;
@@ -52,8 +85,6 @@ import jbLPC.compiler.C_InstrList;
 import jbLPC.compiler.C_Scope;
 import jbLPC.util.Prefs;
 import jbLPC.util.ObjStack;
-import jbLPC.vm.RunFrame;
-import omitoas.app.jmud.JMudPlayer;
 
 public class Debugger {
   private static final String COLOR_RESET = "\033[0m";
@@ -63,7 +94,47 @@ public class Debugger {
 //  private static final String COLOR_BLUE = "\033[34m";
   private static final String COLOR_MAGENTA = "\033[35m";
   private static final String COLOR_CYAN = "\033[36m";
-  
+
+  //flags set on this Debugger, overriding the debug preferences;
+  //each VM has its own Debugger, so these are per VM
+  private Map<String, Boolean> flags = new HashMap<>();
+
+  //execution trace flags, fixed for the duration of one VM run
+  private boolean traceExec;
+  private boolean traceGlobals;
+  private boolean traceStack;
+  private boolean showOpcode;
+
+  //setFlag(String, boolean)
+  //Override the named debug preference for this Debugger only;
+  //"master" overrides them all.
+  public void setFlag(String flag, boolean value) {
+    flags.put(flag, value);
+  }
+
+  //flag(String)
+  private boolean flag(String flag) {
+    Boolean master = flags.get("master");
+    Boolean value = flags.get(flag);
+
+    if (master != null && !master)
+      return false;
+
+    return (value != null) ? value : Prefs.instance().getBoolean(flag);
+  }
+
+  //snapshotTraceFlags()
+  //Read the trace preferences once per VM entry rather than once
+  //per instruction.  Returns whether execution should be traced.
+  public boolean snapshotTraceFlags() {
+    traceExec = flag("exec");
+    traceGlobals = flag("globals");
+    traceStack = flag("stack");
+    showOpcode = flag("opcode");
+
+    return traceExec;
+  }
+
   //printBanner(String)
   public void printBanner(String text) {
 //    user.write("\n");
@@ -72,7 +143,7 @@ public class Debugger {
 
   //printProgress(String)
   public void printProgress(String message) {
-	if (!Prefs.instance().getBoolean("prog")) return;
+	if (!flag("prog")) return;
 
 //	user.write("\n===");
 //	user.write(message.toUpperCase());
@@ -81,7 +152,7 @@ public class Debugger {
 
   //printSource(String)
   public void printSource(String source) {
-    if (!Prefs.instance().getBoolean("source")) return;
+    if (!flag("source")) return;
 
     printBanner("source");
 
@@ -90,16 +161,18 @@ public class Debugger {
 
   //disassembleScope(C_Scope)
   public void disassembleScope(C_Scope scope) {
-	if (!Prefs.instance().getBoolean("comp")) return;
+	if (!flag("comp")) return;
+
+	showOpcode = flag("opcode");
 
 	C_Compilation compilation = scope.compilation();
 	C_InstrList instrList = compilation.instrList();
-	List<Byte> codes = instrList.codes();
+	byte[] codes = instrList.codeArray();
 
     printBanner(compilation.toString());
 
     //codes
-    if (Prefs.instance().getBoolean("codes")) {
+    if (flag("codes")) {
 //      user.write("Codes: ");
 //      user.write(COLOR_MAGENTA);
 //      user.write(instrList.printCodes());
@@ -107,29 +180,31 @@ public class Debugger {
     }
 
     //locals
-    if (Prefs.instance().getBoolean("locals")) {
+    if (flag("locals")) {
 //      user.write("Locals: ");
 //      user.writeLn(scope.locals());
     }
 
     //upvalues
-    if (Prefs.instance().getBoolean("upvals")) {
+    if (flag("upvals")) {
 //      user.write("Upvalues: ");
 //      user.writeLn(scope.upvalues());
     }
 
-    for (int index = 0; index < codes.size();)
+    for (int index = 0; index < codes.length;)
       index = disassembleInstruction(instrList, index);
   }
 
-  //traceExecution(RunFrame, Map<String, Object>, Stack<Object>)
-  public void traceExecution(RunFrame frame, Map<String, Object> globals, ObjStack vStack) {
-    if (!Prefs.instance().getBoolean("exec")) return;
+  //traceExecution(C_InstrList, int, Object[], ObjStack)
+  //Only called by the VM while tracing; see snapshotTraceFlags().
+  //index is that of the instruction about to execute.
+  public void traceExecution(C_InstrList instrList, int index, Object[] globals, ObjStack vStack) {
+    if (!traceExec) return;
 
 //    user.write("\n");
 
     //globals
-    if (Prefs.instance().getBoolean("globals")) {
+    if (traceGlobals) {
 //      user.write(Debugger.COLOR_CYAN);
 //      user.write("Globals: ");
 //      user.write(globals);
@@ -138,7 +213,7 @@ public class Debugger {
     }
 
     //vStack
-    if (Prefs.instance().getBoolean("stack")) {
+    if (traceStack) {
 //      user.write(Debugger.COLOR_GREEN + "Stack: ");
 //      user.write(vStack);
 //      user.write(Debugger.COLOR_RESET);
@@ -146,7 +221,7 @@ public class Debugger {
     }
 
     //instruction
-    disassembleInstruction(frame.closure().compilation().instrList(), frame.ip() - 1);
+    disassembleInstruction(instrList, index);
   }
 
   //disassembleInstruction(C_InstrList, int)
@@ -159,13 +234,13 @@ public class Debugger {
 
     if (
       (index > 0) &&
-      (instrList.lines().get(index) == instrList.lines().get(index - 1))
+      (instrList.lineAt(index) == instrList.lineAt(index - 1))
     )
 //      user.write("   | ");
     {}
-//      user.write(String.format("%4d ", instrList.lines().get(index)));
+//      user.write(String.format("%4d ", instrList.lineAt(index)));
 
-    if (Prefs.instance().getBoolean("opcode")) {
+    if (showOpcode) {
 //      user.write(COLOR_MAGENTA);
 //      user.write("(" + String.format("%02X", instruction) + ") ");
 //      user.write(COLOR_YELLOW);
@@ -175,7 +250,7 @@ public class Debugger {
       case OP_ADD:
         index = simpleInstruction("OP_ADD", index); break;
       case OP_ARRAY:
-        index = operandInstruction("OP_ARRAY", instrList, index, "# of elems"); break;
+        index = wideOperandInstruction("OP_ARRAY", instrList, index, "# of elems"); break;
       case OP_CALL:
         index = operandInstruction("OP_CALL", instrList, index, "# of args"); break;
       case OP_CLOSE_UPVAL:
@@ -187,7 +262,7 @@ public class Debugger {
       case OP_CONSTANT:
         index = constantInstruction("OP_CONSTANT", instrList, index); break;
       case OP_DEF_GLOBAL:
-        index = constantInstruction("OP_DEF_GLOBAL", instrList, index); break;
+        index = wideOperandInstruction("OP_DEF_GLOBAL", instrList, index, "global slot"); break;
       case OP_DIVIDE:
         index = simpleInstruction("OP_DIVIDE", index); break;
       case OP_EQUAL:
@@ -195,9 +270,11 @@ public class Debugger {
       case OP_FALSE:
         index = simpleInstruction("OP_FALSE", index); break;
       case OP_FIELD:
-        index = constantInstruction("OP_FIELD", instrList, index); break;
+        index = wideOperandInstruction("OP_FIELD", instrList, index, "field slot"); break;
+      case OP_GET_FIELD_SLOT:
+        index = wideOperandInstruction("OP_GET_FIELD_SLOT", instrList, index, "field slot"); break;
       case OP_GET_GLOBAL:
-        index = constantInstruction("OP_GET_GLOBAL", instrList, index); break;
+        index = wideOperandInstruction("OP_GET_GLOBAL", instrList, index, "global slot"); break;
       case OP_GET_ITEM:
           index = simpleInstruction("OP_GET_ITEM", index); break;
       case OP_GET_LOCAL:
@@ -223,7 +300,7 @@ public class Debugger {
       case OP_LOOP:
         index = jumpInstruction("OP_LOOP", -1, instrList, index); break;
       case OP_MAPPING:
-          index = operandInstruction("OP_MAPPING", instrList, index, "# of entries"); break;
+          index = wideOperandInstruction("OP_MAPPING", instrList, index, "# of entries"); break;
       case OP_METHOD:
         index = constantInstruction("OP_METHOD", instrList, index); break;
       case OP_MULTIPLY:
@@ -240,8 +317,10 @@ public class Debugger {
         index = simpleInstruction("OP_POP", index); break;
       case OP_RETURN:
         index = simpleInstruction("OP_RETURN", index); break;
+      case OP_SET_FIELD_SLOT:
+        index = wideOperandInstruction("OP_SET_FIELD_SLOT", instrList, index, "field slot"); break;
       case OP_SET_GLOBAL:
-        index = constantInstruction("OP_SET_GLOBAL", instrList, index); break;
+        index = wideOperandInstruction("OP_SET_GLOBAL", instrList, index, "global slot"); break;
       case OP_SET_ITEM:
         index = simpleInstruction("OP_SET_ITEM", index); break;
       case OP_SET_LOCAL:
@@ -254,8 +333,71 @@ public class Debugger {
         index = simpleInstruction("OP_SUBTRACT", index); break;
       case OP_SUPER_INVOKE:
         index = invokeInstruction("OP_SUPER_INVOKE", instrList, index); break;
+      case OP_TAIL_CALL:
+        index = operandInstruction("OP_TAIL_CALL", instrList, index, "# of args"); break;
+      case OP_TAIL_INVOKE:
+        index = invokeInstruction("OP_TAIL_INVOKE", instrList, index); break;
       case OP_TRUE:
         index = simpleInstruction("OP_TRUE", index); break;
+      //superinstructions
+      case OP_CONSTANT_ADD:
+        index = constantInstruction("OP_CONSTANT_ADD", instrList, index); break;
+      case OP_GET_LOCAL_GET_LOCAL_ADD:
+        index = twoOperandInstruction("OP_GET_LOCAL_GET_LOCAL_ADD", instrList, index, "offsets from base"); break;
+      case OP_GET_THIS_FIELD:
+        index = wideOperandInstruction("OP_GET_THIS_FIELD", instrList, index, "field slot"); break;
+      case OP_GET_THIS_PROP:
+        index = constantInstruction("OP_GET_THIS_PROP", instrList, index); break;
+      case OP_GREATER_EQUAL:
+        index = simpleInstruction("OP_GREATER_EQUAL", index); break;
+      case OP_JUMP_IF_FALSE_POP:
+        index = jumpInstruction("OP_JUMP_IF_FALSE_POP", 1, instrList, index); break;
+      case OP_LESS_EQUAL:
+        index = simpleInstruction("OP_LESS_EQUAL", index); break;
+      case OP_NOT_EQUAL:
+        index = simpleInstruction("OP_NOT_EQUAL", index); break;
+      case OP_SET_GLOBAL_POP:
+        index = wideOperandInstruction("OP_SET_GLOBAL_POP", instrList, index, "global slot"); break;
+      case OP_SET_LOCAL_POP:
+        index = operandInstruction("OP_SET_LOCAL_POP", instrList, index, "offset from base"); break;
+      //quickened forms
+      case OP_ADD_NUM:
+        index = simpleInstruction("OP_ADD_NUM", index); break;
+      case OP_ADD_STR:
+        index = simpleInstruction("OP_ADD_STR", index); break;
+      case OP_CONSTANT_ADD_NUM:
+        index = constantInstruction("OP_CONSTANT_ADD_NUM", instrList, index); break;
+      case OP_CONSTANT_ADD_STR:
+        index = constantInstruction("OP_CONSTANT_ADD_STR", instrList, index); break;
+      case OP_GET_FIELD_CACHED:
+        index = constantInstruction("OP_GET_FIELD_CACHED", instrList, index); break;
+      case OP_GET_METHOD_CACHED:
+        index = constantInstruction("OP_GET_METHOD_CACHED", instrList, index); break;
+      case OP_GET_THIS_FIELD_CACHED:
+        index = constantInstruction("OP_GET_THIS_FIELD_CACHED", instrList, index); break;
+      case OP_GET_THIS_METHOD_CACHED:
+        index = constantInstruction("OP_GET_THIS_METHOD_CACHED", instrList, index); break;
+      //register forms
+      case OP_MOVE:
+        index = registerInstruction("OP_MOVE", instrList, index, 2, false, false); break;
+      case OP_LOADK:
+        index = registerInstruction("OP_LOADK", instrList, index, 1, true, false); break;
+      case OP_ADD_RR:
+        index = registerInstruction("OP_ADD_RR", instrList, index, 3, false, false); break;
+      case OP_SUBTRACT_RR:
+        index = registerInstruction("OP_SUBTRACT_RR", instrList, index, 3, false, false); break;
+      case OP_MULTIPLY_RR:
+        index = registerInstruction("OP_MULTIPLY_RR", instrList, index, 3, false, false); break;
+      case OP_DIVIDE_RR:
+        index = registerInstruction("OP_DIVIDE_RR", instrList, index, 3, false, false); break;
+      case OP_ADD_RK:
+        index = registerInstruction("OP_ADD_RK", instrList, index, 2, true, false); break;
+      case OP_SUBTRACT_RK:
+        index = registerInstruction("OP_SUBTRACT_RK", instrList, index, 2, true, false); break;
+      case OP_JUMP_IF_NOT_LESS_RR:
+        index = registerInstruction("OP_JUMP_IF_NOT_LESS_RR", instrList, index, 2, false, true); break;
+      case OP_JUMP_IF_NOT_LESS_RK:
+        index = registerInstruction("OP_JUMP_IF_NOT_LESS_RK", instrList, index, 1, true, true); break;
       default:
 //        user.writeLn("Unknown opcode: " + instruction);
 
@@ -271,7 +413,7 @@ public class Debugger {
 
   //closureInstruction(String, C_InstrList, int)
   private int closureInstruction(String name, C_InstrList instrList, int index) {
-    byte code = getCode(instrList, index + 1);
+    int code = getShort(instrList, index + 1);
     C_Function function = (C_Function)getConstant(instrList, code);
 
     //user.write(String.format("%-16s constant: ", name));
@@ -280,11 +422,11 @@ public class Debugger {
     //user.write(COLOR_YELLOW);
     //user.write(function);
 
-    index += 2;
+    index += 3;
 
     for (int j = 0; j < function.upvalueCount(); j++) {
       boolean isLocal = (getCode(instrList, index++) != 0);
-      code = getCode(instrList, index++);
+      code = getCode(instrList, index++) & 0xFF;
 
       //user.write(String.format(
 //        "%04d      |                     %s %d\n",
@@ -297,7 +439,7 @@ public class Debugger {
 
   //constantInstruction(String, C_InstrList, int)
   private int constantInstruction(String name, C_InstrList instrList, int index) {
-    byte operand = getCode(instrList, index + 1);
+    int operand = getShort(instrList, index + 1);
     Object constant = getConstant(instrList, operand);
 
     //user.write(String.format("%-16s constant: ", name));
@@ -310,13 +452,13 @@ public class Debugger {
     else {}
       //user.write("(" + constant + ")");
 
-    return index + 2;
+    return index + 3;
   }
 
   //invokeInstruction(String, C_InstrList, int)
   private int invokeInstruction(String name, C_InstrList instrList, int index) {
-    byte op1 = getCode(instrList, index + 1);
-    byte op2 = getCode(instrList, index + 2); //arg count
+    int op1 = getShort(instrList, index + 1);
+    int op2 = getCode(instrList, index + 3) & 0xFF; //arg count
     Object constant = getConstant(instrList, op1);
 
     //user.write(String.format("%-16s constant: %d ", name, op1));
@@ -328,7 +470,7 @@ public class Debugger {
 
     //user.write(String.format(" (%d args)", op2));
 
-    return index + 3;
+    return index + 4;
   }
 
   //simpleInstruction(String, int)
@@ -340,7 +482,7 @@ public class Debugger {
 
   //operandInstruction(String, C_InstrList, int, String)
   private int operandInstruction(String name, C_InstrList instrList, int index, String hint) {
-    byte operand = getCode(instrList, index + 1);
+    int operand = getCode(instrList, index + 1) & 0xFF;
 
     //user.write(String.format("%-16s operand: ", name));
     //user.write(COLOR_MAGENTA);
@@ -351,25 +493,88 @@ public class Debugger {
     return index + 2;
   }
 
+  //twoOperandInstruction(String, C_InstrList, int, String)
+  private int twoOperandInstruction(String name, C_InstrList instrList, int index, String hint) {
+    int op1 = getCode(instrList, index + 1) & 0xFF;
+    int op2 = getCode(instrList, index + 2) & 0xFF;
+
+    //user.write(String.format("%-16s operands: ", name));
+    //user.write(COLOR_MAGENTA);
+    //user.write(String.format("%d %d ", op1, op2));
+    //user.write(COLOR_YELLOW);
+    //user.write("(" + hint + ")");
+
+    return index + 3;
+  }
+
+  //wideOperandInstruction(String, C_InstrList, int, String)
+  private int wideOperandInstruction(String name, C_InstrList instrList, int index, String hint) {
+    int operand = getShort(instrList, index + 1);
+
+    //user.write(String.format("%-16s operand: ", name));
+    //user.write(COLOR_MAGENTA);
+    //user.write(String.format("%d ", operand));
+    //user.write(COLOR_YELLOW);
+    //user.write("(" + hint + ")");
+
+    return index + 3;
+  }
+
   //jumpInstruction(String, int, C_InstrList, int)
   private int jumpInstruction(String name, int sign, C_InstrList instrList, int index) {
-    byte operand = getCode(instrList, index);
+    int operand = getShort(instrList, index + 1);
 
     //user.write(String.format(
 //      "%-16s %4d -> %d",
 //      name, index, index + 3 + (sign * operand))
 //    );
 
-    return index + 2;
+    return index + 3;
+  }
+
+  //registerInstruction(String, C_InstrList, int, int, boolean, boolean)
+  //A register op: its registers, then a constant and a forward jump
+  //if it has them.
+  private int registerInstruction(String name, C_InstrList instrList, int index, int registers, boolean constant, boolean jump) {
+    int next = index + 1 + registers;
+
+    //user.write(String.format("%-16s registers: ", name));
+    //user.write(COLOR_MAGENTA);
+    //for (int i = index + 1; i < index + 1 + registers; i++)
+    //  user.write(String.format("%d ", getCode(instrList, i) & 0xFF));
+
+    if (constant) {
+      int operand = getShort(instrList, next);
+
+      //user.write(COLOR_YELLOW);
+      //user.write("'" + getConstant(instrList, operand) + "' ");
+
+      next += 2;
+    }
+
+    if (jump) {
+      int operand = getShort(instrList, next);
+
+      next += 2;
+
+      //user.write(String.format("-> %d", next + operand));
+    }
+
+    return next;
   }
 
   //getCode(C_InstrList, int)
   private byte getCode(C_InstrList instrList, int index) {
-    return instrList.codes().get(index);
+    return instrList.codeArray()[index];
+  }
+
+  //getShort(C_InstrList, int)
+  private int getShort(C_InstrList instrList, int index) {
+    return ((getCode(instrList, index) & 0xFF) << 8) | (getCode(instrList, index + 1) & 0xFF);
   }
 
   //getConstant(C_InstrList, int)
   private Object getConstant(C_InstrList instrList, int index) {
-    return instrList.constants().get(index);
+    return instrList.constantArray()[index];
   }
 }
@@ -0,0 +1,16 @@
+package jbLPC.nativefn;
+
+import jbLPC.vm.VM;
+
+public class NativeEvalCost extends NativeFn {
+  //NativeEvalCost(VM, String, int)
+  public NativeEvalCost(VM vm, String fnName, int arity) {
+    super(vm, fnName, arity);
+  }
+
+  //execute(Object[])
+  //Eval cost consumed so far by the current top-level entry.
+  public Object execute(Object[] args) {
+    return vm.evalCost();
+  }
+}
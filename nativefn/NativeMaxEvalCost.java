@@ -0,0 +1,16 @@
+package jbLPC.nativefn;
+
+import jbLPC.vm.VM;
+
+public class NativeMaxEvalCost extends NativeFn {
+  //NativeMaxEvalCost(VM, String, int)
+  public NativeMaxEvalCost(VM vm, String fnName, int arity) {
+    super(vm, fnName, arity);
+  }
+
+  //execute(Object[])
+  //Eval cost budget of each top-level entry (0 if unlimited).
+  public Object execute(Object[] args) {
+    return vm.maxEvalCost();
+  }
+}
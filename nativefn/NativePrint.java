@@ -15,7 +15,9 @@ public class NativePrint extends NativeFn {
     else if (args.length == 1) {
       Object o = args[0];
 
-      if (o instanceof Number) {
+      if (o instanceof Long)
+        vm.write(String.format("%d", (long)o));
+      else if (o instanceof Double) {
         double d = (double)o;
 
         if (d == (long)d)
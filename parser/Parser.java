@@ -1,7 +1,7 @@
 package jbLPC.parser;
 
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import jbLPC.compiler.C_Compiler;
@@ -34,7 +34,7 @@ public class Parser {
   }
 
   private C_Compiler c_Compiler;
-  private Iterator<Token> tokens;
+  private Scanner tokens;
 
   private Map<TokenType, ParseRule> tokenTypeToRule;
 
@@ -88,6 +88,11 @@ public class Parser {
     return panicMode;
   }
 
+  //includes()
+  public List<String> includes() {
+    return tokens.includes();
+  }
+
   //synchronize()
   public void synchronize() {
     panicMode = false;
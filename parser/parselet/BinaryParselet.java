@@ -24,46 +24,46 @@ public class BinaryParselet implements Parselet {
 
     switch (operatorType) {
       case TOKEN_BANG_EQUAL:
-        compiler.emitCode(OP_EQUAL);
-        compiler.emitCode(OP_NOT);
+        compiler.emitBinary(OP_EQUAL);
+        compiler.emitUnary(OP_NOT);
 
         break;
       case TOKEN_EQUAL_EQUAL:
-        compiler.emitCode(OP_EQUAL);
+        compiler.emitBinary(OP_EQUAL);
 
         break;
       case TOKEN_GREATER:
-        compiler.emitCode(OP_GREATER);
+        compiler.emitBinary(OP_GREATER);
 
         break;
       case TOKEN_GREATER_EQUAL:
-        compiler.emitCode(OP_LESS);
-        compiler.emitCode(OP_NOT);
+        compiler.emitBinary(OP_LESS);
+        compiler.emitUnary(OP_NOT);
 
         break;
       case TOKEN_LESS:
-        compiler.emitCode(OP_LESS);
+        compiler.emitBinary(OP_LESS);
 
         break;
       case TOKEN_LESS_EQUAL:
-        compiler.emitCode(OP_GREATER);
-        compiler.emitCode(OP_NOT);
+        compiler.emitBinary(OP_GREATER);
+        compiler.emitUnary(OP_NOT);
 
         break;
       case TOKEN_PLUS:
-        compiler.emitCode(OP_ADD);
+        compiler.emitBinary(OP_ADD);
 
         break;
       case TOKEN_MINUS:
-        compiler.emitCode(OP_SUBTRACT);
+        compiler.emitBinary(OP_SUBTRACT);
 
         break;
       case TOKEN_STAR:
-        compiler.emitCode(OP_MULTIPLY);
+        compiler.emitBinary(OP_MULTIPLY);
 
         break;
       case TOKEN_SLASH:
-        compiler.emitCode(OP_DIVIDE);
+        compiler.emitBinary(OP_DIVIDE);
 
         break;
       case TOKEN_PLUS_EQUAL:
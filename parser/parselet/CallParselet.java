@@ -1,7 +1,5 @@
 package jbLPC.parser.parselet;
 
-import static jbLPC.compiler.C_OpCode.OP_CALL;
-
 import jbLPC.compiler.C_Compiler;
 import jbLPC.parser.Parser;
 
@@ -10,7 +8,6 @@ public class CallParselet implements Parselet {
   public void parse(Parser parser, C_Compiler compiler, boolean canAssign) {
     int argCount = compiler.argumentList();
     
-    compiler.emitCode(OP_CALL);
-    compiler.emitCode(argCount);
+    compiler.emitCall(argCount);
   }
 }
@@ -1,7 +1,6 @@
 package jbLPC.parser.parselet;
 
 import static jbLPC.compiler.C_OpCode.OP_GET_PROP;
-import static jbLPC.compiler.C_OpCode.OP_INVOKE;
 import static jbLPC.compiler.C_OpCode.OP_SET_PROP;
 import static jbLPC.scanner.TokenType.TOKEN_EQUAL;
 import static jbLPC.scanner.TokenType.TOKEN_IDENTIFIER;
@@ -21,16 +20,14 @@ public class DotParselet implements Parselet {
       compiler.expression();
       
       compiler.emitCode(OP_SET_PROP);
-      compiler.emitCode(index);
+      compiler.emitShort(index);
     } else if (parser.match(TOKEN_LEFT_PAREN)) {
       int argCount = compiler.argumentList();
 
-      compiler.emitCode(OP_INVOKE);
-      compiler.emitCode(index);
-      compiler.emitCode(argCount);
+      compiler.emitInvoke(index, argCount);
     } else {
       compiler.emitCode(OP_GET_PROP);
-      compiler.emitCode(index);
+      compiler.emitShort(index);
     }
   }
 }
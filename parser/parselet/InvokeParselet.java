@@ -1,6 +1,5 @@
 package jbLPC.parser.parselet;
 
-import static jbLPC.compiler.C_OpCode.OP_INVOKE;
 import static jbLPC.scanner.TokenType.TOKEN_IDENTIFIER;
 import static jbLPC.scanner.TokenType.TOKEN_LEFT_PAREN;
 
@@ -20,8 +19,6 @@ public class InvokeParselet implements Parselet {
     //arg count
     int op2 = compiler.argumentList();
 
-    compiler.emitCode(OP_INVOKE);
-    compiler.emitCode(op1);
-    compiler.emitCode(op2);
+    compiler.emitInvoke(op1, op2);
   }
 }
@@ -17,12 +17,12 @@ public class LParenParselet implements Parselet {
       int elementCount = compiler.array();
       
       compiler.emitCode(OP_ARRAY);
-      compiler.emitCode(elementCount);
+      compiler.emitShort(elementCount);
     } else if (parser.match(TOKEN_LEFT_BRACKET)) { //mapping
       int entryCount = compiler.mapping();
       
       compiler.emitCode(OP_MAPPING);
-      compiler.emitCode(entryCount);
+      compiler.emitShort(entryCount);
     } else { //grouping
       compiler.expression();
 
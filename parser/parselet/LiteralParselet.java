@@ -1,9 +1,5 @@
 package jbLPC.parser.parselet;
 
-import static jbLPC.compiler.C_OpCode.OP_FALSE;
-import static jbLPC.compiler.C_OpCode.OP_NIL;
-import static jbLPC.compiler.C_OpCode.OP_TRUE;
-
 import jbLPC.compiler.C_Compiler;
 import jbLPC.parser.Parser;
 
@@ -12,15 +8,15 @@ public class LiteralParselet implements Parselet {
   public void parse(Parser parser, C_Compiler compiler, boolean canAssign) {
     switch (parser.previous().type()) {
       case TOKEN_FALSE:
-        compiler.emitCode(OP_FALSE);
+        compiler.emitLiteral(false);
 
         break;
       case TOKEN_NIL:
-        compiler.emitCode(OP_NIL);
+        compiler.emitLiteral(null);
 
         break;
       case TOKEN_TRUE:
-        compiler.emitCode(OP_TRUE);
+        compiler.emitLiteral(true);
 
         break;
       default: //Unreachable
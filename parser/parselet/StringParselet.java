@@ -1,7 +1,5 @@
 package jbLPC.parser.parselet;
 
-import static jbLPC.compiler.C_OpCode.OP_CONSTANT;
-
 import jbLPC.compiler.C_Compiler;
 import jbLPC.parser.Parser;
 
@@ -9,10 +7,7 @@ public class StringParselet implements Parselet {
   //parse(Parser, C_Compiler, boolean)
   public void parse(Parser parser, C_Compiler compiler, boolean canAssign) {
     Object obj = parser.previous().literal();
-    
-    int index = compiler.emitConstant(obj);
 
-    compiler.emitCode(OP_CONSTANT);
-    compiler.emitCode(index);
+    compiler.emitLiteral(obj);
   }
 }
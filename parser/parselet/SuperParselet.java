@@ -36,7 +36,7 @@ public class SuperParselet implements Parselet {
 //    compiler.namedVariable(compiler.syntheticToken("super"), false);
 
     compiler.emitCode(OP_SUPER_INVOKE);
-    compiler.emitCode(index); //constants index
+    compiler.emitShort(index); //constants index
     compiler.emitCode(argCount);
   }
 }
@@ -19,11 +19,11 @@ public class UnaryParselet implements Parselet {
     // Emit the operator instruction.
     switch (operatorType) {
       case TOKEN_BANG:
-        compiler.emitCode(OP_NOT);
+        compiler.emitUnary(OP_NOT);
 
         break;
       case TOKEN_MINUS:
-        compiler.emitCode(OP_NEGATE);
+        compiler.emitUnary(OP_NEGATE);
 
         break;
       default: //Unreachable
@@ -18,5 +18,6 @@ public enum Feature {
   DEBUG,
   OBJCSYNTAX, //Supports lexing of objective-C.
   INCLUDENEXT,
-  PRAGMA_ONCE //Random extensions.
+  PRAGMA_ONCE, //Random extensions.
+  DECIMAL //Lexes integer constants as decimal only: no octal or hex.
 }
@@ -190,14 +190,25 @@ public class Preprocessor implements Closeable {
     this(new FileLexerSource(file));
   }
 
-  public String preprocess() {
-    StringBuilder sb = new StringBuilder();
-
+  /**
+   * Sets the features and listener used for LPC sources.
+   *
+   * Called before reading tokens, either through
+   * {@link #preprocess()} or directly through {@link #token()}.
+   */
+  public void configure() {
     addFeature(Feature.DIGRAPHS);
     addFeature(Feature.TRIGRAPHS);
+    addFeature(Feature.DECIMAL);
     //addWarning(Warning.IMPORT);
     setListener(new DefaultPreprocessorListener());
     getWarnings().clear();
+  }
+
+  public String preprocess() {
+    StringBuilder sb = new StringBuilder();
+
+    configure();
 
     try {
       for (;;) {
@@ -28,6 +28,7 @@ public class LexerSource extends Source {
   private boolean bol;
   private boolean include;
   private boolean digraphs;
+  private boolean decimal;
 
   /* Unread. */
   private int u0, u1;
@@ -47,6 +48,7 @@ public class LexerSource extends Source {
     this.bol = true;
     this.include = false;
     this.digraphs = true;
+    this.decimal = false;
     this.ucount = 0;
     this.line = 1;
     this.column = 0;
@@ -59,6 +61,7 @@ public class LexerSource extends Source {
     super.init(pp);
 
     this.digraphs = pp.getFeature(Feature.DIGRAPHS);
+    this.decimal = pp.getFeature(Feature.DECIMAL);
     this.reader.init(pp, this);
   }
 
@@ -698,7 +701,7 @@ public class LexerSource extends Source {
       d = read();
     }
     int base = 10;
-    if (fraction == null && exponent == null && integer.startsWith("0")) {
+    if (!decimal && fraction == null && exponent == null && integer.startsWith("0")) {
       if (!is_octal(integer))
         warning("Decimal constant starts with 0, but not octal: " + integer);
       else
@@ -754,7 +757,7 @@ public class LexerSource extends Source {
       LexerException {
     Token tok;
     int c = read();
-    if (c == '0') {
+    if (c == '0' && !decimal) {
       int d = read();
       if (d == 'x' || d == 'X') {
         tok = number_hex((char) d);
@@ -50,21 +50,33 @@ import static jbLPC.scanner.TokenType.TOKEN_TRUE;
 import static jbLPC.scanner.TokenType.TOKEN_WHILE;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import jbLPC.debug.Debugger;
+import jbLPC.preprocessor.LexerException;
+import jbLPC.preprocessor.NumericValue;
 import jbLPC.preprocessor.Preprocessor;
+import jbLPC.preprocessor.fs.VirtualFile;
 import jbLPC.preprocessor.source.StringLexerSource;
 
+//Adapts the Preprocessor's token stream into LPC Tokens as the
+//Parser asks for them.  Source is lexed once, by the Preprocessor;
+//each Token keeps the line of the file (or #include) it came from.
 public class Scanner implements Iterator<Token> {
-  private static final char EOL = '\n';
   private static final Map<String, TokenType> lpcTypes;
   private static final Map<String, TokenType> reservedWords;
   private static final Map<Character, TokenType> oneCharLexemes;
+  private static final Map<Integer, TokenType> multiCharLexemes;
   
-  private ScannableSource ss;
+  private Preprocessor pp;
+  private jbLPC.preprocessor.Token pushedBack; //one token of lookahead
+  private String lookaheadError; //lookahead failure, reported next read
+  private int line;
+  private boolean atEnd;
 
   static {
     lpcTypes = new HashMap<>() {
@@ -72,6 +84,7 @@ public class Scanner implements Iterator<Token> {
 
       {
         // LPC Types.
+        put("float", TOKEN_TYPE);
         put("int", TOKEN_TYPE);
         put("mapping", TOKEN_TYPE);
         put("mixed", TOKEN_TYPE);
@@ -115,146 +128,183 @@ public class Scanner implements Iterator<Token> {
         put(';', TOKEN_SEMICOLON);
       }
     };
+
+    multiCharLexemes = new HashMap<>() {
+      private static final long serialVersionUID = 1L;
+
+      {
+        put(jbLPC.preprocessor.Token.ARROW, TOKEN_INVOKE);
+        put(jbLPC.preprocessor.Token.DEC, TOKEN_MINUS_MINUS);
+        put(jbLPC.preprocessor.Token.DIV_EQ, TOKEN_SLASH_EQUAL);
+        put(jbLPC.preprocessor.Token.EQ, TOKEN_EQUAL_EQUAL);
+        put(jbLPC.preprocessor.Token.GE, TOKEN_GREATER_EQUAL);
+        put(jbLPC.preprocessor.Token.INC, TOKEN_PLUS_PLUS);
+        put(jbLPC.preprocessor.Token.LAND, TOKEN_DBL_AMP);
+        put(jbLPC.preprocessor.Token.LE, TOKEN_LESS_EQUAL);
+        put(jbLPC.preprocessor.Token.LOR, TOKEN_DBL_PIPE);
+        put(jbLPC.preprocessor.Token.MULT_EQ, TOKEN_STAR_EQUAL);
+        put(jbLPC.preprocessor.Token.NE, TOKEN_BANG_EQUAL);
+        put(jbLPC.preprocessor.Token.PLUS_EQ, TOKEN_PLUS_EQUAL);
+        put(jbLPC.preprocessor.Token.SUB_EQ, TOKEN_MINUS_EQUAL);
+      }
+    };
   }
 
   // Scanner(Debugger, String)
   public Scanner(Debugger debugger, String source) {
-    try (Preprocessor pp = new Preprocessor()) {
-      pp.addInput(new StringLexerSource(source, true));
-      pp.getSystemIncludePath().add(".");
+    pp = new Preprocessor();
 
-      ss = new ScannableSource(pp.preprocess());
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
+    pp.configure();
+    pp.addInput(new StringLexerSource(source, true));
+    pp.getSystemIncludePath().add(".");
+
+    line = 1;
+    atEnd = false;
 
-    debugger.printSource(ss.toString());
+    debugger.printSource(source);
 
     debugger.printProgress("Scanner initialized");
   }
 
   // lexToken()
   public Token lexToken() {
-    if (ss.atEnd())
-      return new Token(TOKEN_EOF, "", null, ss.line());
+    if (atEnd)
+      return new Token(TOKEN_EOF, "", null, line);
 
-    ss.syncTailHead(); // reset (tail = head)
+    if (lookaheadError != null) {
+      finish();
 
-    char c = ss.consumeOneChar();
+      return errorToken(lookaheadError);
+    }
 
-    // one-char lexeme
-    if (oneCharLexemes.containsKey(c))
-      return makeToken(oneCharLexemes.get(c));
+    jbLPC.preprocessor.Token tok;
+
+    try {
+      tok = ppToken();
+    } catch (IOException | LexerException e) {
+      finish();
+
+      return errorToken("Preprocessor failed: " + e.getMessage());
+    }
 
-    // number
-    if (isDigit(c))
-      return number();
+    if (tok.getLine() > 0)
+      line = tok.getLine();
 
-    // identifier
-    if (isAlpha(c))
-      return identifier();
+    int type = tok.getType();
+    String text = tok.getText();
 
-    // symbol
-    switch (c) {
-    case EOL:
+    switch (type) {
+    case jbLPC.preprocessor.Token.EOF:
+      finish();
+
+      return new Token(TOKEN_EOF, "", null, line);
+    case jbLPC.preprocessor.Token.WHITESPACE:
+    case jbLPC.preprocessor.Token.NL:
+    case jbLPC.preprocessor.Token.CCOMMENT:
+    case jbLPC.preprocessor.Token.CPPCOMMENT:
+    case jbLPC.preprocessor.Token.P_LINE:
       return null;
-    case '"':
-      return string();
-    case '&':
-      if (ss.match('&'))
-        return makeToken(TOKEN_DBL_AMP);
-      else
-        return unexpectedChar(c);
-    case '|':
-      if (ss.match('|'))
-        return makeToken(TOKEN_DBL_PIPE);
-      else
-        return unexpectedChar(c);
+    case jbLPC.preprocessor.Token.IDENTIFIER:
+      return identifier(text);
+    case jbLPC.preprocessor.Token.NUMBER:
+      return number(tok);
+    case jbLPC.preprocessor.Token.STRING:
+      // drop the quotes; the body is taken as written
+      return makeToken(TOKEN_STRING, text, text.substring(1, text.length() - 1));
+    case jbLPC.preprocessor.Token.INVALID:
+      return errorToken(String.valueOf(tok.getValue()));
     case ':':
-      if (ss.match(':'))
-        return makeToken(TOKEN_SUPER);
-      else
-        return makeToken(TOKEN_COLON);
-    case '-':
-      if (ss.match('-'))
-        return makeToken(TOKEN_MINUS_MINUS);
-      else if (ss.match('='))
-        return makeToken(TOKEN_MINUS_EQUAL);
-      else if (ss.match('>'))
-        return makeToken(TOKEN_INVOKE);
-      else
-        return makeToken(TOKEN_MINUS);
-    case '+':
-      if (ss.match('+'))
-        return makeToken(TOKEN_PLUS_PLUS);
-      else if (ss.match('='))
-        return makeToken(TOKEN_PLUS_EQUAL);
+      // '::' arrives from the Preprocessor as two adjacent ':'
+      if (nextIs(':'))
+        return makeToken(TOKEN_SUPER, "::");
       else
-        return makeToken(TOKEN_PLUS);
+        return makeToken(TOKEN_COLON, text);
     case '!':
-      return makeToken(ss.match('=') ? TOKEN_BANG_EQUAL : TOKEN_BANG);
+      return makeToken(TOKEN_BANG, text);
     case '=':
-      return makeToken(ss.match('=') ? TOKEN_EQUAL_EQUAL : TOKEN_EQUAL);
+      return makeToken(TOKEN_EQUAL, text);
     case '<':
-      return makeToken(ss.match('=') ? TOKEN_LESS_EQUAL : TOKEN_LESS);
+      return makeToken(TOKEN_LESS, text);
     case '>':
-      return makeToken(ss.match('=') ? TOKEN_GREATER_EQUAL : TOKEN_GREATER);
+      return makeToken(TOKEN_GREATER, text);
+    case '-':
+      return makeToken(TOKEN_MINUS, text);
+    case '+':
+      return makeToken(TOKEN_PLUS, text);
     case '/':
-      if (ss.match('/'))
-        return lineComment();
-      else if (ss.match('*'))
-        return blockComment();
-      else if (ss.match('='))
-        return makeToken(TOKEN_SLASH_EQUAL);
-      else
-        return makeToken(TOKEN_SLASH);
+      return makeToken(TOKEN_SLASH, text);
     case '*':
-      return makeToken(ss.match('=') ? TOKEN_STAR_EQUAL : TOKEN_STAR);
-    case ' ':
-    case '\r':
-    case '\t':
-      while (isWhitespace(ss.peek()))
-        ss.advance(); // fast-forward through whitespace
-
-      return null;
+      return makeToken(TOKEN_STAR, text);
     default:
-      return unexpectedChar(c);
+      break;
     } // switch
+
+    // one-char lexeme
+    if (type < 256 && oneCharLexemes.containsKey((char)type))
+      return makeToken(oneCharLexemes.get((char)type), text);
+
+    // multi-char lexeme
+    if (multiCharLexemes.containsKey(type))
+      return makeToken(multiCharLexemes.get(type), text);
+
+    return unexpectedText(text);
   }
 
-  // lineComment()
-  private Token lineComment() {
-    ss.advanceTo(EOL);
+  // includes()
+  // Paths of the files pulled in by #include so far.
+  public List<String> includes() {
+    List<String> paths = new ArrayList<>();
 
-    return null;
+    for (VirtualFile file : pp.getIncludes())
+      paths.add(file.getPath());
+
+    return paths;
   }
 
-  // blockComment()
-  private Token blockComment() {
-    while (!ss.atEnd()) {
-      ss.advanceTo('*');
+  // ppToken()
+  private jbLPC.preprocessor.Token ppToken() throws IOException, LexerException {
+    if (pushedBack != null) {
+      jbLPC.preprocessor.Token tok = pushedBack;
+
+      pushedBack = null;
+
+      return tok;
+    }
+
+    return pp.token();
+  }
 
-      if (ss.peekPrev() == '/')
-        return errorToken("Nested block comment");
+  // nextIs(int)
+  // Consume the next Preprocessor token only if it is of the given type.
+  // A failure to read it is kept and reported by the next lexToken().
+  private boolean nextIs(int type) {
+    try {
+      jbLPC.preprocessor.Token tok = ppToken();
 
-      ss.advance();
+      if (tok.getType() == type)
+        return true;
 
-      if (ss.match('/'))
-        return null;
-    } // while
+      pushedBack = tok;
+    } catch (IOException | LexerException e) {
+      lookaheadError = "Preprocessor failed: " + e.getMessage();
+    }
 
-    // Error if we get here.
-    return errorToken("Unterminated block comment.");
+    return false;
   }
 
-  // identifier()
-  private Token identifier() {
-    while (isAlphaNumeric(ss.peek()))
-      ss.advance();
+  // finish()
+  private void finish() {
+    atEnd = true;
 
-    String str = ss.read();
+    try {
+      pp.close();
+    } catch (IOException e) {
+      // nothing left to read
+    }
+  }
 
+  // identifier(String)
+  private Token identifier(String str) {
     // check LPC types first
     TokenType type = lpcTypes.get(str);
 
@@ -266,73 +316,48 @@ public class Scanner implements Iterator<Token> {
       // treat as identifier
       type = TOKEN_IDENTIFIER;
 
-    return makeToken(type);
+    return makeToken(type, str);
   }
 
-  // number()
-  private Token number() {
-    while (isDigit(ss.peek()))
-      ss.advance();
-
-    // Look for a fractional part.
-    if (ss.peek() == '.' && isDigit(ss.peekNext())) {
-      ss.advance(); // consume the '.'
-
-      while (isDigit(ss.peek()))
-        ss.advance();
+  // number(jbLPC.preprocessor.Token)
+  // Numbers are decimal, as ever (Feature.DECIMAL): 010 is ten, and
+  // there are no hex constants.
+  private Token number(jbLPC.preprocessor.Token tok) {
+    NumericValue value = (NumericValue)tok.getValue();
+    int floatFlags = NumericValue.F_FLOAT | NumericValue.F_DOUBLE;
+
+    // LPC float
+    if (value.getFractionalPart() != null
+        || value.getExponent() != null
+        || (value.getFlags() & floatFlags) != 0)
+      return makeToken(TOKEN_NUMBER, tok.getText(), value.doubleValue());
+
+    // LPC int
+    try {
+      return makeToken(TOKEN_NUMBER, tok.getText(), value.longValue());
+    } catch (NumberFormatException e) {
+      return errorToken("Integer literal out of range.");
     }
-
-    return makeToken(TOKEN_NUMBER, Double.parseDouble(ss.read()));
-  }
-
-  // string()
-  private Token string() {
-    if (!ss.advanceTo('"'))
-      return errorToken("Unterminated string.");
-
-    ss.advance(); // consume the closing '"'
-
-    return makeToken(TOKEN_STRING, ss.readTrimmed());
-  }
-
-  // isWhitespace(char)
-  private boolean isWhitespace(char c) {
-    return (c == ' ') || (c == '\r') || (c == '\t');
-  }
-
-  // isAlpha(char)
-  private boolean isAlpha(char c) {
-    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
-  }
-
-  // isAlphaNumeric(char)
-  private boolean isAlphaNumeric(char c) {
-    return isAlpha(c) || isDigit(c);
-  }
-
-  // isDigit(char)
-  private boolean isDigit(char c) {
-    return c >= '0' && c <= '9';
   }
 
-  // unexpectedChar(char)
-  private Token unexpectedChar(char c) {
-    return errorToken("Unexpected character: '" + c + "'.");
+  // unexpectedText(String)
+  private Token unexpectedText(String text) {
+    return errorToken("Unexpected character: '" + text + "'.");
   }
 
   // errorToken(String)
   private Token errorToken(String message) {
-    return new Token(TOKEN_ERROR, message, null, ss.line());
+    return new Token(TOKEN_ERROR, message, null, line);
   }
 
-  // makeToken(TokenType)
-  private Token makeToken(TokenType type) {
-    return makeToken(type, null);
+  // makeToken(TokenType, String)
+  private Token makeToken(TokenType type, String lexeme) {
+    return makeToken(type, lexeme, null);
   }
 
-  // makeToken(TokenType, Object)
-  private Token makeToken(TokenType type, Object literal) {
-    return new Token(type, ss.read(), literal, ss.line());
+  // makeToken(TokenType, String, Object)
+  private Token makeToken(TokenType type, String lexeme, Object literal) {
+    return new Token(type, lexeme, literal, line);
   }
 
   // hasNext()
@@ -0,0 +1,16 @@
+package jbLPC.util;
+
+//Where the VM's output goes: a player's connection when embedded in
+//a MUD host, standard output when run from the command line.
+@FunctionalInterface
+public interface HostOutput {
+  HostOutput STDOUT = str -> System.out.print(str);
+
+  //write(String)
+  void write(String str);
+
+  //writeLn(String)
+  default void writeLn(String str) {
+    write(str + "\n");
+  }
+}
@@ -1,70 +1,273 @@
 package jbLPC.util;
 
-import java.util.Iterator;
-import java.util.List;
-import java.util.Stack;
-
+import java.util.Arrays;
 
 public final class ObjStack {
   private static final String COLOR_RESET = "\033[0m";
   private static final String COLOR_GREEN = "\033[32m";
+  private static final int INITIAL_CAPACITY = 256;
+
+  //Tags marking a slot whose value is held unboxed in prims[].
+  private static final Object INT = new Object();
+  private static final Object FLOAT = new Object();
+
+  //Unsynchronized; the VM owning a stack is single-threaded.
+  private Object[] values;
+  private long[] prims; //int value, or raw bits of a float value
+  private int sp; //index of next free slot
 
-  private Stack<Object> values;
-  
+  //ObjStack()
   public ObjStack() {
-    this.values = new Stack<Object>();
+    this(INITIAL_CAPACITY);
   }
-  
+
+  //ObjStack(int)
+  public ObjStack(int capacity) {
+    values = new Object[Math.max(capacity, 1)];
+    prims = new long[values.length];
+    sp = 0;
+  }
+
+  //push(Object)
+  //Boxed LPC ints (Long) and floats (Double) are stored unboxed.
   public void push(Object value) {
-    this.values.push(value);
+    if (sp == values.length)
+      grow();
+
+    store(sp++, value);
   }
-  
+
+  //pushInt(long)
+  public void pushInt(long value) {
+    if (sp == values.length)
+      grow();
+
+    values[sp] = INT;
+    prims[sp++] = value;
+  }
+
+  //pushFloat(double)
+  public void pushFloat(double value) {
+    if (sp == values.length)
+      grow();
+
+    values[sp] = FLOAT;
+    prims[sp++] = Double.doubleToRawLongBits(value);
+  }
+
+  //pushSlot(int)
+  //Push a copy of the value at index without boxing it.
+  public void pushSlot(int index) {
+    if (sp == values.length)
+      grow();
+
+    values[sp] = values[index];
+    prims[sp++] = prims[index];
+  }
+
+  //setSlot(int)
+  //Copy the top value into index without boxing it.
+  public void setSlot(int index) {
+    values[index] = values[sp - 1];
+    prims[index] = prims[sp - 1];
+  }
+
+  //copySlot(int, int)
+  //Copy the value at from into to without boxing it.
+  public void copySlot(int from, int to) {
+    values[to] = values[from];
+    prims[to] = prims[from];
+  }
+
+  //pop()
   public Object pop() {
-    return values.pop();
+    Object value = box(--sp);
+
+    values[sp] = null; //release reference
+
+    return value;
+  }
+
+  //popInt()
+  //Caller must have checked isInt(0).
+  public long popInt() {
+    return prims[--sp];
+  }
+
+  //popFloat()
+  //Caller must have checked isNumber(0); ints are widened.
+  public double popFloat() {
+    sp--;
+
+    if (values[sp] == INT)
+      return (double)prims[sp];
+
+    return Double.longBitsToDouble(prims[sp]);
+  }
+
+  //drop(int)
+  //Discard the top n values.
+  public void drop(int n) {
+    int newSp = sp - n;
+
+    Arrays.fill(values, newSp, sp, null);
+
+    sp = newSp;
+  }
+
+  //unwind(int)
+  //Move the top value down to index and discard everything above it.
+  public void unwind(int index) {
+    setSlot(index);
+
+    drop(sp - index - 1);
   }
-  
-  public Object popMinus(int offset) {
-    return get(size() - 1  - offset);
+
+  //slide(int, int)
+  //Move the top n values down to start at index and discard
+  //everything above them.
+  public void slide(int index, int n) {
+    System.arraycopy(values, sp - n, values, index, n);
+    System.arraycopy(prims, sp - n, prims, index, n);
+
+    drop(sp - index - n);
   }
-  
+
+  //peek()
   public Object peek() {
-    return values.peek();
+    return box(sp - 1);
   }
-  
-  public Object peekN(int offset) {
-	if (values.size() > 0)
-      return values.get(values.size() - 1 - offset);
-	else
-	  return null;
+
+  //peek(int)
+  //Return the value n slots below the top, where peek(0) == peek().
+  public Object peek(int n) {
+    return box(sp - 1 - n);
   }
-  
+
+  //peekInt(int)
+  //Caller must have checked isInt(n).
+  public long peekInt(int n) {
+    return prims[sp - 1 - n];
+  }
+
+  //isInt(int)
+  public boolean isInt(int n) {
+    return values[sp - 1 - n] == INT;
+  }
+
+  //isFloat(int)
+  public boolean isFloat(int n) {
+    return values[sp - 1 - n] == FLOAT;
+  }
+
+  //isNumber(int)
+  public boolean isNumber(int n) {
+    Object value = values[sp - 1 - n];
+
+    return value == INT || value == FLOAT;
+  }
+
+  //isIntAt(int)
+  //As isInt, by index from the bottom rather than the top.
+  public boolean isIntAt(int index) {
+    return values[index] == INT;
+  }
+
+  //isFloatAt(int)
+  public boolean isFloatAt(int index) {
+    return values[index] == FLOAT;
+  }
+
+  //intAt(int)
+  //Caller must have checked isIntAt(index).
+  public long intAt(int index) {
+    return prims[index];
+  }
+
+  //floatAt(int)
+  //Caller must have checked isFloatAt(index).
+  public double floatAt(int index) {
+    return Double.longBitsToDouble(prims[index]);
+  }
+
+  //setIntAt(int, long)
+  public void setIntAt(int index, long value) {
+    values[index] = INT;
+    prims[index] = value;
+  }
+
+  //get(int)
   public Object get(int index) {
-    return values.get(index);
+    return box(index);
   }
-  
+
+  //set(int, Object)
   public void set(int index, Object value) {
-    this.values.set(index, value);
+    store(index, value);
   }
-  
+
+  //size()
   public int size() {
-    return values.size();
+    return sp;
+  }
+
+  //isEmpty()
+  public boolean isEmpty() {
+    return sp == 0;
+  }
+
+  //copyTop(int)
+  //Copy the top n values, bottom-most first, into a new array.
+  public Object[] copyTop(int n) {
+    Object[] copy = new Object[n];
+
+    for (int i = 0; i < n; i++)
+      copy[i] = box(sp - n + i);
+
+    return copy;
+  }
+
+  //box(int)
+  private Object box(int index) {
+    Object value = values[index];
+
+    if (value == INT)
+      return prims[index];
+
+    if (value == FLOAT)
+      return Double.longBitsToDouble(prims[index]);
+
+    return value;
   }
-  
-  public List<Object> subList(int fromIndex, int toIndex) {
-    return values.subList(fromIndex, toIndex);
+
+  //store(int, Object)
+  private void store(int index, Object value) {
+    if (value instanceof Long) {
+      values[index] = INT;
+      prims[index] = (Long)value;
+    } else if (value instanceof Double) {
+      values[index] = FLOAT;
+      prims[index] = Double.doubleToRawLongBits((Double)value);
+    } else
+      values[index] = value;
+  }
+
+  //grow()
+  private void grow() {
+    values = Arrays.copyOf(values, values.length * 2);
+    prims = Arrays.copyOf(prims, prims.length * 2);
   }
 
   //toString()
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder(COLOR_RESET + "[");
-    Iterator<Object> iterator = this.values.iterator();
-    
-    while (iterator.hasNext()) {
-      Object value = iterator.next();
-      
+
+    for (int i = 0; i < sp; i++) {
+      Object value = box(i);
+
       sb.append(COLOR_GREEN);
-      
+
       if (value instanceof String) {
         sb.append("\"" + value + "\"");
       } else {
@@ -73,12 +276,12 @@ public final class ObjStack {
 
       sb.append(COLOR_RESET);
 
-      if (iterator.hasNext())
+      if (i < sp - 1)
         sb.append(" | ");
     }
-    
+
     sb.append("]");
-    
+
     return sb.toString();
   }
 }
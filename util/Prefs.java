@@ -3,11 +3,11 @@ package jbLPC.util;
 import java.util.prefs.Preferences;
 
 public class Prefs {
-  private static Prefs _instance;
+  private static volatile Prefs _instance;
   private static Preferences prefs;
 
   private Prefs() {
-    prefs = Preferences.systemNodeForPackage(jbLPC.JBLPC.class);
+    prefs = Preferences.systemRoot().node("/jbLPC"); //the driver's package node
   }
 
   public static Prefs instance() {
@@ -29,6 +29,14 @@ public class Prefs {
     prefs.putBoolean(pref, value);
   }
   
+  public int getInt(String pref, int def) {
+    return prefs.getInt(pref, def);
+  }
+  
+  public long getLong(String pref, long def) {
+    return prefs.getLong(pref, def);
+  }
+  
   public String getString(String pref) {
     return prefs.get(pref, null);
   }
@@ -6,7 +6,9 @@ import jbLPC.compiler.C_Function;
 import static jbLPC.compiler.C_Compilation.C_CompilationType.TYPE_FUNCTION;
 
 public class Closure {
-  private C_Compilation compilation;
+  private static final Upvalue[] NO_UPVALUES = new Upvalue[0];
+
+  private final C_Compilation compilation;
   private Upvalue[] upvalues;
 
   //Closure(C_Compilation)
@@ -16,8 +18,27 @@ public class Closure {
     if (compilation.type() == TYPE_FUNCTION) {
       C_Function function = (C_Function)compilation;
 
-      upvalues = new Upvalue[function.upvalueCount()];
+      upvalues = (function.upvalueCount() == 0) ? NO_UPVALUES : new Upvalue[function.upvalueCount()];
+    }
+  }
+
+  //of(C_Function)
+  //A closure over function.  One that captures nothing has a single,
+  //canonical closure, shared by every object and every VM; VMs racing
+  //to create it each keep their own, and the last written stays.
+  public static Closure of(C_Function function) {
+    if (function.upvalueCount() != 0)
+      return new Closure(function);
+
+    Closure closure = (Closure)function.closure();
+
+    if (closure == null) {
+      closure = new Closure(function);
+
+      function.setClosure(closure);
     }
+
+    return closure;
   }
 
   //compilation()
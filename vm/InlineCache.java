@@ -0,0 +1,162 @@
+package jbLPC.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jbLPC.compiler.C_Compilation;
+import jbLPC.compiler.C_Function;
+import jbLPC.compiler.C_ObjectCompilation;
+
+//Per-call-site cache for OP_GET_PROP, OP_SET_PROP and OP_INVOKE.
+//Entries are keyed on the program (object compilation) that built
+//the receiver; every object of a program resolves a given name the
+//same way.  A site holds up to MAX_ENTRIES programs, after which it
+//is megamorphic and stops taking new entries.
+//
+//Programs retired from C_ProgramTable (out of date, invalidated)
+//are never cached, and a site drops its entries for them whenever
+//it next takes an entry, so a hot-reloaded object neither stays
+//reachable from its callers' sites nor fills them up for good.
+//
+//Programs, and so their sites' caches, are shared by every VM in
+//the process.  Lookups do not lock: the entries are an immutable
+//array, replaced whole through a volatile field, and adds are
+//serialized.
+public class InlineCache {
+  public static final int KIND_FIELD = 0;
+  public static final int KIND_METHOD = 1;
+
+  private static final int MAX_ENTRIES = 4;
+  private static final Entry[] NO_ENTRIES = new Entry[0];
+
+  private volatile Entry[] entries;
+  private boolean dequickened; //a quickened form of the site missed
+
+  //InlineCache()
+  public InlineCache() {
+    entries = NO_ENTRIES;
+  }
+
+  //lookup(C_Compilation)
+  //Return the entry for program, or null on a miss.
+  public Entry lookup(C_Compilation program) {
+    Entry[] entries = this.entries;
+
+    for (int i = 0; i < entries.length; i++)
+      if (entries[i].program == program)
+        return entries[i];
+
+    return null;
+  }
+
+  //first(C_Compilation, int)
+  //Return the site's first entry if it is for program and of the
+  //given kind, else null; the guard of the site's quickened forms.
+  public Entry first(C_Compilation program, int kind) {
+    Entry[] entries = this.entries;
+
+    if (entries.length == 0)
+      return null;
+
+    Entry entry = entries[0];
+
+    return (entry.program == program && entry.kind == kind) ? entry : null;
+  }
+
+  //addField(C_Compilation, int)
+  public synchronized void addField(C_Compilation program, int slot) {
+    add(new Entry(program, KIND_FIELD, null, slot));
+  }
+
+  //add(C_Compilation, int, Object)
+  public synchronized void add(C_Compilation program, int kind, Object target) {
+    //a method closure is shared across objects of a program
+    //only if it captures nothing of its own
+    if (kind == KIND_METHOD && !isShareable((Closure)target))
+      return;
+
+    add(new Entry(program, kind, target, -1));
+  }
+
+  //add(Entry)
+  private void add(Entry entry) {
+    //objects still under construction have no program yet
+    if (entry.program == null || isRetired(entry.program) || lookup(entry.program) != null)
+      return;
+
+    List<Entry> kept = new ArrayList<>(MAX_ENTRIES);
+
+    for (Entry old : entries)
+      if (!isRetired(old.program))
+        kept.add(old);
+
+    if (kept.size() == MAX_ENTRIES)
+      return;
+
+    kept.add(entry);
+
+    entries = kept.toArray(NO_ENTRIES);
+  }
+
+  //isMegamorphic()
+  public boolean isMegamorphic() {
+    return entries.length == MAX_ENTRIES;
+  }
+
+  //isQuickenable()
+  //Whether the site may be rewritten to a quickened form: it has
+  //seen objects of just one program, and has never been reverted.
+  public boolean isQuickenable() {
+    return entries.length == 1 && !dequickened;
+  }
+
+  //dequicken()
+  //Keep the site generic from now on.
+  public void dequicken() {
+    dequickened = true;
+  }
+
+  //isRetired(C_Compilation)
+  private static boolean isRetired(C_Compilation program) {
+    return program instanceof C_ObjectCompilation && ((C_ObjectCompilation)program).isRetired();
+  }
+
+  //isShareable(Closure)
+  private boolean isShareable(Closure closure) {
+    C_Compilation compilation = closure.compilation();
+
+    return !(compilation instanceof C_Function)
+      || ((C_Function)compilation).upvalueCount() == 0;
+  }
+
+  //One program's resolution of the site's name.
+  public static final class Entry {
+    private final C_Compilation program;
+    private final int kind;
+    private final Object target; //Closure
+    private final int slot; //field slot
+
+    //Entry(C_Compilation, int, Object, int)
+    private Entry(C_Compilation program, int kind, Object target, int slot) {
+      this.program = program;
+      this.kind = kind;
+      this.target = target;
+      this.slot = slot;
+    }
+
+    //kind()
+    public int kind() {
+      return kind;
+    }
+
+    //target()
+    public Object target() {
+      return target;
+    }
+
+    //slot()
+    public int slot() {
+      return slot;
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package jbLPC.vm;
+
+//Thrown through JIT-compiled code once a runtime error has been
+//reported, to unwind back to the VM.
+final class JitAbort extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  static final JitAbort ABORT = new JitAbort();
+
+  //JitAbort()
+  private JitAbort() {
+    super(null, null, false, false); //no stack trace
+  }
+}
@@ -0,0 +1,41 @@
+package jbLPC.vm;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jbLPC.util.ObjStack;
+
+//A C_Function compiled by JitCompiler into a hidden JVM class,
+//specialized to the types its arguments had when it got hot.
+abstract class JitCode {
+  //returned by invoke() when the arguments on the vStack do not
+  //have the types this code was specialized to
+  static final Object DEOPT = new Object();
+
+  //returned in place of a result when the code ends in a tail
+  //call it could not make itself; the callee and its arguments
+  //are left on the vStack, and VM.pendingArgs holds their count
+  static final Object TAIL_CALL = new Object();
+
+  boolean generic; //takes arguments of any type; never deopts
+  int deopts; //invocations refused so far, by all VMs (racy)
+
+  //invoke(VM, ObjStack, int)
+  //Run the function on the callee and arguments stacked from base,
+  //returning its result.  The vStack is left as it was found.
+  abstract Object invoke(VM vm, ObjStack vStack, int base);
+
+  //frames()
+  //The compiled function bodies running on this thread, innermost
+  //first.  Each frame's file name is its function's name, and its
+  //line number the LPC source line.
+  static List<StackFrame> frames() {
+    return StackWalker.getInstance(StackWalker.Option.SHOW_HIDDEN_FRAMES).walk(frames ->
+      frames
+        .filter(frame -> frame.getMethodName().equals("body"))
+        .filter(frame -> frame.getClassName().startsWith(JitCode.class.getName() + "$"))
+        .collect(Collectors.toList())
+    );
+  }
+}
@@ -0,0 +1,1447 @@
+package jbLPC.vm;
+
+import static jbLPC.compiler.C_OpCode.OP_ADD;
+import static jbLPC.compiler.C_OpCode.OP_ADD_RK;
+import static jbLPC.compiler.C_OpCode.OP_ADD_RR;
+import static jbLPC.compiler.C_OpCode.OP_CALL;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT_ADD;
+import static jbLPC.compiler.C_OpCode.OP_DIVIDE;
+import static jbLPC.compiler.C_OpCode.OP_DIVIDE_RR;
+import static jbLPC.compiler.C_OpCode.OP_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_FALSE;
+import static jbLPC.compiler.C_OpCode.OP_GET_FIELD_SLOT;
+import static jbLPC.compiler.C_OpCode.OP_GET_GLOBAL;
+import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL;
+import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL_GET_LOCAL_ADD;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_FIELD;
+import static jbLPC.compiler.C_OpCode.OP_GREATER;
+import static jbLPC.compiler.C_OpCode.OP_GREATER_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_INVOKE;
+import static jbLPC.compiler.C_OpCode.OP_JUMP;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_FALSE;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_FALSE_POP;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_NOT_LESS_RK;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_NOT_LESS_RR;
+import static jbLPC.compiler.C_OpCode.OP_LESS;
+import static jbLPC.compiler.C_OpCode.OP_LESS_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_LOADK;
+import static jbLPC.compiler.C_OpCode.OP_LOOP;
+import static jbLPC.compiler.C_OpCode.OP_MOVE;
+import static jbLPC.compiler.C_OpCode.OP_MULTIPLY;
+import static jbLPC.compiler.C_OpCode.OP_MULTIPLY_RR;
+import static jbLPC.compiler.C_OpCode.OP_NEGATE;
+import static jbLPC.compiler.C_OpCode.OP_NIL;
+import static jbLPC.compiler.C_OpCode.OP_NOT;
+import static jbLPC.compiler.C_OpCode.OP_NOT_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_POP;
+import static jbLPC.compiler.C_OpCode.OP_RETURN;
+import static jbLPC.compiler.C_OpCode.OP_SET_FIELD_SLOT;
+import static jbLPC.compiler.C_OpCode.OP_SET_GLOBAL;
+import static jbLPC.compiler.C_OpCode.OP_SET_GLOBAL_POP;
+import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL;
+import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL_POP;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT_RK;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT_RR;
+import static jbLPC.compiler.C_OpCode.OP_TAIL_CALL;
+import static jbLPC.compiler.C_OpCode.OP_TRUE;
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ACONST_NULL;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.ASM9;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.DADD;
+import static org.objectweb.asm.Opcodes.DCMPG;
+import static org.objectweb.asm.Opcodes.DCMPL;
+import static org.objectweb.asm.Opcodes.DCONST_0;
+import static org.objectweb.asm.Opcodes.DDIV;
+import static org.objectweb.asm.Opcodes.DLOAD;
+import static org.objectweb.asm.Opcodes.DMUL;
+import static org.objectweb.asm.Opcodes.DNEG;
+import static org.objectweb.asm.Opcodes.DSTORE;
+import static org.objectweb.asm.Opcodes.DSUB;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.IADD;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.ICONST_1;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.IFGT;
+import static org.objectweb.asm.Opcodes.IFLT;
+import static org.objectweb.asm.Opcodes.IFNE;
+import static org.objectweb.asm.Opcodes.IF_ACMPNE;
+import static org.objectweb.asm.Opcodes.IF_ICMPEQ;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.IXOR;
+import static org.objectweb.asm.Opcodes.L2D;
+import static org.objectweb.asm.Opcodes.LADD;
+import static org.objectweb.asm.Opcodes.LCMP;
+import static org.objectweb.asm.Opcodes.LCONST_0;
+import static org.objectweb.asm.Opcodes.LDIV;
+import static org.objectweb.asm.Opcodes.LLOAD;
+import static org.objectweb.asm.Opcodes.LMUL;
+import static org.objectweb.asm.Opcodes.LNEG;
+import static org.objectweb.asm.Opcodes.LSTORE;
+import static org.objectweb.asm.Opcodes.LSUB;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V17;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import jbLPC.compiler.C_Function;
+import jbLPC.compiler.C_InstrList;
+import jbLPC.compiler.C_OpCode;
+import jbLPC.util.ObjStack;
+
+//Translates a hot C_Function's bytecode into a hidden JVM class,
+//a JitCode, which HotSpot then compiles like any other Java code.
+//
+//Each vStack slot of the function's window becomes a set of JVM
+//locals, one per type the slot can hold, so locals and temporaries
+//alike live in JVM locals and ints and floats stay unboxed.  The
+//types are inferred per instruction by a dataflow pass, starting
+//from the argument types seen when the function got hot; where
+//paths with differing types meet, the slot is boxed.  The entry
+//point checks the arguments against those types and declines
+//(DEOPT) on a mismatch, leaving the call to the interpreter.
+//
+//Calls of the function itself go straight to the compiled body;
+//self tail calls become jumps.  Any other call goes back through
+//the VM.  Functions using an opcode not handled here (upvalues,
+//closures, arrays, mappings, properties, ...) are not compiled.
+final class JitCompiler {
+  //returned, and stored on the function, if it cannot be compiled
+  static final Object FAILED = new Object();
+
+  //value types of a slot; any two differing types join to T_OBJ
+  private static final byte T_LONG = 1;
+  private static final byte T_DOUBLE = 2;
+  private static final byte T_BOOL = 3;
+  private static final byte T_OBJ = 4;
+
+  //JVM locals per slot: Object, long (two), double (two), boolean
+  private static final int LOCALS_PER_SLOT = 6;
+
+  private static final String CODE = "jbLPC/vm/JitCode";
+  private static final String RUNTIME = "jbLPC/vm/JitRuntime";
+  private static final String VM = "jbLPC/vm/VM";
+  private static final String STACK = "jbLPC/util/ObjStack";
+  private static final String OBJECT = "java/lang/Object";
+  private static final String OBJECT_DESC = "Ljava/lang/Object;";
+  private static final String FUNCTION_DESC = "LjbLPC/compiler/C_Function;";
+  private static final String CACHES_DESC = "[Ljava/lang/Object;";
+
+  //hidden classes are defined in this package, so that they may
+  //call the VM's package-private jit hooks
+  private static final Lookup LOOKUP = MethodHandles.lookup();
+
+  private final C_Function function;
+  private final byte[] codes;
+  private final Object[] constants;
+  private final C_InstrList lines;
+  private final byte[] params; //types of slots 0..arity, as the body takes them
+  private final String className;
+  private final String bodyDesc;
+  private final int firstLocal; //JVM local of slot 0
+
+  private byte[][] states; //slot types on entry, by offset; null if not reached
+  private Label[] labels; //by offset
+  private Deque<Integer> work; //offsets whose entry types changed
+  private List<Stub> stubs; //edges that box slots on the way
+  private MethodVisitor mv; //discards everything while analysing
+  private boolean emitting;
+
+  //the instruction being walked
+  private byte[] t; //slot types
+  private int h; //slot count
+
+  //JitCompiler(C_Function, byte[])
+  private JitCompiler(C_Function function, byte[] params) {
+    C_InstrList instrList = function.instrList();
+
+    this.function = function;
+    this.codes = genericCodes(instrList);
+    this.constants = instrList.constantArray();
+    this.lines = instrList;
+    this.params = params;
+
+    className = "jbLPC/vm/JitCode$" + function.name().replaceAll("[^A-Za-z0-9_]", "_");
+
+    StringBuilder desc = new StringBuilder("(L" + VM + ";");
+    int local = 1; //the VM
+
+    for (byte type : params) {
+      desc.append(descriptor(type));
+
+      local += size(type);
+    }
+
+    bodyDesc = desc.append(")").append(OBJECT_DESC).toString();
+    firstLocal = local;
+  }
+
+  //compile(C_Function, ObjStack, int)
+  //Compile function, specialized to the types of the arguments
+  //stacked above base, or for arguments of any type if vStack is
+  //null.  Returns the JitCode, or FAILED.
+  static Object compile(C_Function function, ObjStack vStack, int base) {
+    if (function.upvalueCount() != 0)
+      return FAILED;
+
+    byte[] params = new byte[function.arity() + 1];
+
+    params[0] = T_OBJ; //callee, or receiver
+
+    for (int i = 1; i < params.length; i++)
+      if (vStack != null && vStack.isIntAt(base + i))
+        params[i] = T_LONG;
+      else if (vStack != null && vStack.isFloatAt(base + i))
+        params[i] = T_DOUBLE;
+      else
+        params[i] = T_OBJ;
+
+    try {
+      JitCode code = new JitCompiler(function, params).build();
+
+      code.generic = (vStack == null);
+
+      return code;
+    } catch (RuntimeException | LinkageError | ReflectiveOperationException e) {
+      return FAILED; //unsupported, or too large for one JVM method
+    }
+  }
+
+  //build()
+  private JitCode build() throws ReflectiveOperationException {
+    if (!isSupported())
+      throw new IllegalStateException("Unsupported opcode.");
+
+    labels = new Label[codes.length + 1];
+
+    for (int i = 0; i < labels.length; i++)
+      labels[i] = new Label();
+
+    analyse();
+
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+      //no two distinct classes meet in generated code other than
+      //as Objects; also keeps ASM from loading classes
+      @Override
+      protected String getCommonSuperClass(String type1, String type2) {
+        return OBJECT;
+      }
+    };
+
+    cw.visit(V17, ACC_FINAL | ACC_SUPER, className, null, CODE, null);
+    cw.visitSource(function.name(), null); //names the function in JitCode.frames()
+    cw.visitField(ACC_STATIC, "function", FUNCTION_DESC, null, null).visitEnd();
+    cw.visitField(ACC_STATIC, "caches", CACHES_DESC, null, null).visitEnd();
+
+    constructor(cw);
+    invoke(cw);
+    body(cw);
+
+    cw.visitEnd();
+
+    Lookup lookup = LOOKUP.defineHiddenClass(cw.toByteArray(), true);
+    Class<?> hidden = lookup.lookupClass();
+
+    lookup.findStaticVarHandle(hidden, "function", C_Function.class).set(function);
+    lookup.findStaticVarHandle(hidden, "caches", Object[].class).set(function.instrList().siteCaches());
+
+    return (JitCode)hidden.getDeclaredConstructor().newInstance();
+  }
+
+  //isSupported()
+  //Whether every instruction in the function can be translated.
+  private boolean isSupported() {
+    for (int offset = 0; offset < codes.length; offset += length(offset))
+      switch (codes[offset]) {
+        case OP_CONSTANT:
+        case OP_CONSTANT_ADD:
+          if (!isSupported(constants[readShort(offset + 1)]))
+            return false;
+
+          break;
+        case OP_LOADK:
+        case OP_JUMP_IF_NOT_LESS_RK:
+          if (!isSupported(constants[readShort(offset + 2)]))
+            return false;
+
+          break;
+        case OP_ADD_RK:
+        case OP_SUBTRACT_RK:
+          if (!isSupported(constants[readShort(offset + 3)]))
+            return false;
+
+          break;
+        case OP_ADD_RR:
+        case OP_DIVIDE_RR:
+        case OP_JUMP_IF_NOT_LESS_RR:
+        case OP_MOVE:
+        case OP_MULTIPLY_RR:
+        case OP_SUBTRACT_RR:
+        case OP_ADD:
+        case OP_CALL:
+        case OP_DIVIDE:
+        case OP_EQUAL:
+        case OP_FALSE:
+        case OP_GET_FIELD_SLOT:
+        case OP_GET_GLOBAL:
+        case OP_GET_LOCAL:
+        case OP_GET_LOCAL_GET_LOCAL_ADD:
+        case OP_GET_THIS_FIELD:
+        case OP_GREATER:
+        case OP_GREATER_EQUAL:
+        case OP_INVOKE:
+        case OP_JUMP:
+        case OP_JUMP_IF_FALSE:
+        case OP_JUMP_IF_FALSE_POP:
+        case OP_LESS:
+        case OP_LESS_EQUAL:
+        case OP_LOOP:
+        case OP_MULTIPLY:
+        case OP_NEGATE:
+        case OP_NIL:
+        case OP_NOT:
+        case OP_NOT_EQUAL:
+        case OP_POP:
+        case OP_RETURN:
+        case OP_SET_FIELD_SLOT:
+        case OP_SET_GLOBAL:
+        case OP_SET_GLOBAL_POP:
+        case OP_SET_LOCAL:
+        case OP_SET_LOCAL_POP:
+        case OP_SUBTRACT:
+        case OP_TAIL_CALL:
+        case OP_TRUE:
+          break;
+        default:
+          return false;
+      }
+
+    return true;
+  }
+
+  //isSupported(Object)
+  //Whether constant can be loaded as a JVM constant.
+  private static boolean isSupported(Object constant) {
+    return constant == null || constant instanceof Long || constant instanceof Double
+      || constant instanceof String || constant instanceof Boolean;
+  }
+
+  //analyse()
+  //Infer the slot types on entry to every reachable instruction,
+  //walking the code without emitting anything until they settle.
+  private void analyse() {
+    states = new byte[codes.length + 1][];
+    states[0] = params.clone();
+    work = new ArrayDeque<>();
+    mv = new MethodVisitor(ASM9) {};
+    emitting = false;
+
+    work.push(0);
+
+    while (!work.isEmpty())
+      walk(work.pop());
+  }
+
+  //constructor(ClassWriter)
+  private void constructor(ClassWriter cw) {
+    mv = cw.visitMethod(0, "<init>", "()V", null, null);
+
+    mv.visitCode();
+    mv.visitVarInsn(ALOAD, 0);
+    mv.visitMethodInsn(INVOKESPECIAL, CODE, "<init>", "()V", false);
+    mv.visitInsn(RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  //invoke(ClassWriter)
+  //JitCode.invoke(): check the stacked arguments' types, then read
+  //them off the vStack into a call of the body.
+  private void invoke(ClassWriter cw) {
+    Label deopt = new Label();
+
+    mv = cw.visitMethod(0, "invoke", "(L" + VM + ";L" + STACK + ";I)" + OBJECT_DESC, null, null);
+
+    mv.visitCode();
+
+    for (int i = 1; i < params.length; i++) {
+      if (params[i] == T_OBJ)
+        continue;
+
+      stackIndex(i);
+      mv.visitMethodInsn(INVOKEVIRTUAL, STACK, (params[i] == T_LONG) ? "isIntAt" : "isFloatAt", "(I)Z", false);
+      mv.visitJumpInsn(IFEQ, deopt);
+    }
+
+    mv.visitVarInsn(ALOAD, 1); //VM
+
+    for (int i = 0; i < params.length; i++) {
+      stackIndex(i);
+
+      if (params[i] == T_LONG)
+        mv.visitMethodInsn(INVOKEVIRTUAL, STACK, "intAt", "(I)J", false);
+      else if (params[i] == T_DOUBLE)
+        mv.visitMethodInsn(INVOKEVIRTUAL, STACK, "floatAt", "(I)D", false);
+      else
+        mv.visitMethodInsn(INVOKEVIRTUAL, STACK, "get", "(I)" + OBJECT_DESC, false);
+    }
+
+    mv.visitMethodInsn(INVOKESTATIC, className, "body", bodyDesc, false);
+    mv.visitInsn(ARETURN);
+
+    mv.visitLabel(deopt);
+    mv.visitFieldInsn(GETSTATIC, CODE, "DEOPT", OBJECT_DESC);
+    mv.visitInsn(ARETURN);
+
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  //stackIndex(int)
+  //Push the vStack, and the index of window slot i, for invoke().
+  private void stackIndex(int i) {
+    mv.visitVarInsn(ALOAD, 2); //vStack
+    mv.visitVarInsn(ILOAD, 3); //base
+    iconst(i);
+    mv.visitInsn(IADD);
+  }
+
+  //body(ClassWriter)
+  //The function itself, as a static method taking the VM and the
+  //slots of its window on entry.
+  private void body(ClassWriter cw) {
+    mv = cw.visitMethod(ACC_STATIC, "body", bodyDesc, null, null);
+    stubs = new ArrayList<>();
+    emitting = true;
+
+    mv.visitCode();
+
+    vm();
+    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitEnter", "()V", false);
+
+    //move the arguments into their slots' locals, boxing any whose
+    //slot may hold other types further on (i.e. is reassigned)
+    int arg = 1;
+
+    for (int i = 0; i < params.length; i++) {
+      mv.visitVarInsn(loadOp(params[i]), arg);
+
+      if (states[0][i] != params[i])
+        box(params[i]);
+
+      mv.visitVarInsn(storeOp(states[0][i]), local(i, states[0][i]));
+
+      arg += size(params[i]);
+    }
+
+    for (int offset = 0; offset < codes.length; offset += length(offset))
+      if (states[offset] != null) {
+        mv.visitLabel(labels[offset]);
+        mv.visitLineNumber(lines.lineAt(offset), labels[offset]);
+
+        walk(offset);
+      }
+
+    for (Stub stub : stubs) {
+      mv.visitLabel(stub.label);
+
+      t = stub.types;
+      h = stub.types.length;
+
+      convert(states[stub.target]);
+
+      mv.visitJumpInsn(GOTO, labels[stub.target]);
+    }
+
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  //walk(int)
+  //Translate the instruction at offset, given its entry types.
+  //While analysing, this only propagates types to its successors.
+  private void walk(int offset) {
+    byte code = codes[offset];
+    int next = offset + length(offset);
+
+    t = Arrays.copyOf(states[offset], states[offset].length + 4);
+    h = states[offset].length;
+
+    switch (code) {
+      case OP_ADD:
+      case OP_DIVIDE:
+      case OP_MULTIPLY:
+      case OP_SUBTRACT:
+        arithmetic(code);
+
+        break;
+      case OP_CALL:
+        call(codes[offset + 1] & 0xFF);
+
+        break;
+      case OP_CONSTANT:
+        constant(readShort(offset + 1));
+
+        break;
+      case OP_CONSTANT_ADD:
+        constant(readShort(offset + 1));
+        arithmetic(OP_ADD);
+
+        break;
+      case OP_EQUAL:
+        equal();
+
+        break;
+      case OP_FALSE:
+        mv.visitInsn(ICONST_0);
+        push(T_BOOL);
+
+        break;
+      case OP_GET_FIELD_SLOT:
+        getField(readShort(offset + 1));
+
+        break;
+      case OP_GET_GLOBAL:
+        vm();
+        iconst(readShort(offset + 1));
+        mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitGetGlobal", "(I)" + OBJECT_DESC, false);
+        push(T_OBJ);
+
+        break;
+      case OP_GET_LOCAL:
+        getLocal(codes[offset + 1] & 0xFF);
+
+        break;
+      case OP_GET_LOCAL_GET_LOCAL_ADD:
+        getLocal(codes[offset + 1] & 0xFF);
+        getLocal(codes[offset + 2] & 0xFF);
+        arithmetic(OP_ADD);
+
+        break;
+      case OP_GET_THIS_FIELD:
+        getLocal(0);
+        getField(readShort(offset + 1));
+
+        break;
+      case OP_GREATER:
+      case OP_LESS:
+        compare(code);
+
+        break;
+      case OP_GREATER_EQUAL: //as OP_LESS, OP_NOT
+        compare(OP_LESS);
+        not();
+
+        break;
+      case OP_INVOKE:
+        invoke(offset, readShort(offset + 1), codes[offset + 3] & 0xFF);
+
+        break;
+      case OP_JUMP:
+        mv.visitJumpInsn(GOTO, edge(offset + 3 + readShort(offset + 1)));
+
+        return;
+      case OP_JUMP_IF_FALSE:
+        jumpIfFalse(offset + 3 + readShort(offset + 1));
+
+        break;
+      case OP_JUMP_IF_FALSE_POP:
+        jumpIfFalse(offset + 3 + readShort(offset + 1));
+
+        h--; //only when not jumping
+
+        break;
+      case OP_LESS_EQUAL: //as OP_GREATER, OP_NOT
+        compare(OP_GREATER);
+        not();
+
+        break;
+      case OP_LOOP:
+        vm();
+        mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitCharge", "()V", false);
+        mv.visitJumpInsn(GOTO, edge(offset + 3 - readShort(offset + 1)));
+
+        return;
+      case OP_NEGATE:
+        negate();
+
+        break;
+      case OP_NIL:
+        mv.visitInsn(ACONST_NULL);
+        push(T_OBJ);
+
+        break;
+      case OP_NOT:
+        not();
+
+        break;
+      case OP_NOT_EQUAL: //as OP_EQUAL, OP_NOT
+        equal();
+        not();
+
+        break;
+      case OP_POP:
+        h--;
+
+        break;
+      case OP_RETURN:
+        vm();
+        mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitExit", "()V", false);
+        loadBoxed(h - 1);
+        mv.visitInsn(ARETURN);
+
+        return;
+      case OP_SET_FIELD_SLOT:
+        setField(readShort(offset + 1));
+
+        break;
+      case OP_SET_GLOBAL:
+        setGlobal(readShort(offset + 1));
+
+        break;
+      case OP_SET_GLOBAL_POP:
+        setGlobal(readShort(offset + 1));
+
+        h--;
+
+        break;
+      case OP_SET_LOCAL:
+        setLocal(codes[offset + 1] & 0xFF);
+
+        break;
+      case OP_SET_LOCAL_POP:
+        setLocal(codes[offset + 1] & 0xFF);
+
+        h--;
+
+        break;
+      case OP_TAIL_CALL:
+        tailCall(codes[offset + 1] & 0xFF);
+
+        return;
+      case OP_TRUE:
+        mv.visitInsn(ICONST_1);
+        push(T_BOOL);
+
+        break;
+      //register forms, as the stack code each stands for
+      case OP_MOVE:
+        getLocal(codes[offset + 2] & 0xFF);
+        setLocal(codes[offset + 1] & 0xFF);
+
+        h--;
+
+        break;
+      case OP_LOADK:
+        constant(readShort(offset + 2));
+        setLocal(codes[offset + 1] & 0xFF);
+
+        h--;
+
+        break;
+      case OP_ADD_RR:
+      case OP_DIVIDE_RR:
+      case OP_MULTIPLY_RR:
+      case OP_SUBTRACT_RR:
+        getLocal(codes[offset + 2] & 0xFF);
+        getLocal(codes[offset + 3] & 0xFF);
+        arithmetic(stackOp(code));
+        setLocal(codes[offset + 1] & 0xFF);
+
+        h--;
+
+        break;
+      case OP_ADD_RK:
+      case OP_SUBTRACT_RK:
+        getLocal(codes[offset + 2] & 0xFF);
+        constant(readShort(offset + 3));
+        arithmetic(stackOp(code));
+        setLocal(codes[offset + 1] & 0xFF);
+
+        h--;
+
+        break;
+      case OP_JUMP_IF_NOT_LESS_RR:
+        getLocal(codes[offset + 1] & 0xFF);
+        getLocal(codes[offset + 2] & 0xFF);
+        compare(OP_LESS);
+        jumpIfFalsePop(offset + 5 + readShort(offset + 3));
+
+        break;
+      case OP_JUMP_IF_NOT_LESS_RK:
+        getLocal(codes[offset + 1] & 0xFF);
+        constant(readShort(offset + 2));
+        compare(OP_LESS);
+        jumpIfFalsePop(offset + 6 + readShort(offset + 4));
+
+        break;
+    }
+
+    //fall through to the next instruction, boxing as it expects
+    if (emitting)
+      convert(states[next]);
+    else
+      edge(next);
+  }
+
+  //edge(int)
+  //The label to jump to for target, given the current slot types.
+  //Where target expects some slots boxed, that is a stub boxing them
+  //on the way.
+  private Label edge(int target) {
+    byte[] out = Arrays.copyOf(t, h);
+    byte[] in = states[target];
+
+    if (!emitting) {
+      if (in == null) {
+        states[target] = out;
+
+        work.push(target);
+      } else {
+        if (in.length != h)
+          throw new IllegalStateException("Stack height mismatch.");
+
+        boolean changed = false;
+
+        for (int i = 0; i < h; i++)
+          if (in[i] != out[i] && in[i] != T_OBJ) {
+            in[i] = T_OBJ;
+            changed = true;
+          }
+
+        if (changed)
+          work.push(target);
+      }
+
+      return labels[target];
+    }
+
+    if (Arrays.equals(out, in))
+      return labels[target];
+
+    Stub stub = new Stub(out, target);
+
+    stubs.add(stub);
+
+    return stub.label;
+  }
+
+  //convert(byte[])
+  //Box the slots whose type differs from types'.
+  private void convert(byte[] types) {
+    for (int i = 0; i < h; i++)
+      if (t[i] != types[i]) {
+        loadBoxed(i);
+        store(i, T_OBJ);
+      }
+  }
+
+  //arithmetic(byte)
+  private void arithmetic(byte code) {
+    int a = h - 2;
+    int b = h - 1;
+
+    if (t[a] == T_LONG && t[b] == T_LONG) {
+      if (code == OP_DIVIDE) {
+        load(b);
+        mv.visitInsn(LCONST_0);
+        mv.visitInsn(LCMP);
+        zeroCheck();
+      }
+
+      load(a);
+      load(b);
+      mv.visitInsn(longOp(code));
+
+      h -= 2;
+
+      push(T_LONG);
+    } else if (isNumber(t[a]) && isNumber(t[b])) {
+      if (code == OP_DIVIDE) {
+        loadDouble(b);
+        mv.visitInsn(DCONST_0);
+        mv.visitInsn(DCMPL);
+        zeroCheck();
+      }
+
+      loadDouble(a);
+      loadDouble(b);
+      mv.visitInsn(doubleOp(code));
+
+      h -= 2;
+
+      push(T_DOUBLE);
+    } else {
+      vm();
+      loadBoxed(a);
+      loadBoxed(b);
+      runtime(operation(code), "(L" + VM + ";" + OBJECT_DESC + OBJECT_DESC + ")" + OBJECT_DESC);
+
+      h -= 2;
+
+      push(T_OBJ);
+    }
+  }
+
+  //zeroCheck()
+  //Fail with the VM's error if the comparison just made is equal.
+  private void zeroCheck() {
+    Label ok = new Label();
+
+    mv.visitJumpInsn(IFNE, ok);
+    error("Division by zero.");
+    mv.visitLabel(ok);
+  }
+
+  //compare(byte)
+  //OP_GREATER or OP_LESS.
+  private void compare(byte code) {
+    int a = h - 2;
+    int b = h - 1;
+
+    if (t[a] == T_LONG && t[b] == T_LONG) {
+      load(a);
+      load(b);
+      mv.visitInsn(LCMP);
+      bool((code == OP_GREATER) ? IFGT : IFLT);
+    } else if (isNumber(t[a]) && isNumber(t[b])) {
+      //NaN compares false either way
+      loadDouble(a);
+      loadDouble(b);
+      mv.visitInsn((code == OP_GREATER) ? DCMPL : DCMPG);
+      bool((code == OP_GREATER) ? IFGT : IFLT);
+    } else {
+      vm();
+      loadBoxed(a);
+      loadBoxed(b);
+      runtime((code == OP_GREATER) ? "greater" : "less", "(L" + VM + ";" + OBJECT_DESC + OBJECT_DESC + ")Z");
+    }
+
+    h -= 2;
+
+    push(T_BOOL);
+  }
+
+  //equal()
+  private void equal() {
+    int a = h - 2;
+    int b = h - 1;
+
+    if (t[a] == T_LONG && t[b] == T_LONG) {
+      load(a);
+      load(b);
+      mv.visitInsn(LCMP);
+      bool(IFEQ);
+    } else if (isNumber(t[a]) && isNumber(t[b])) {
+      loadDouble(a);
+      loadDouble(b);
+      mv.visitInsn(DCMPL);
+      bool(IFEQ);
+    } else if (t[a] == T_BOOL && t[b] == T_BOOL) {
+      load(a);
+      load(b);
+      bool(IF_ICMPEQ);
+    } else {
+      loadBoxed(a);
+      loadBoxed(b);
+      runtime("equal", "(" + OBJECT_DESC + OBJECT_DESC + ")Z");
+    }
+
+    h -= 2;
+
+    push(T_BOOL);
+  }
+
+  //not()
+  private void not() {
+    int a = h - 1;
+
+    switch (t[a]) {
+      case T_BOOL:
+        load(a);
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IXOR);
+
+        break;
+      case T_LONG:
+        load(a);
+        mv.visitInsn(LCONST_0);
+        mv.visitInsn(LCMP);
+        bool(IFEQ);
+
+        break;
+      case T_DOUBLE: //floats are never falsey
+        mv.visitInsn(ICONST_0);
+
+        break;
+      default:
+        load(a);
+        runtime("isFalsey", "(" + OBJECT_DESC + ")Z");
+
+        break;
+    }
+
+    h--;
+
+    push(T_BOOL);
+  }
+
+  //negate()
+  private void negate() {
+    int a = h - 1;
+    byte type = t[a];
+
+    if (type == T_LONG || type == T_DOUBLE) {
+      load(a);
+      mv.visitInsn((type == T_LONG) ? LNEG : DNEG);
+    } else {
+      vm();
+      loadBoxed(a);
+      runtime("negate", "(L" + VM + ";" + OBJECT_DESC + ")" + OBJECT_DESC);
+
+      type = T_OBJ;
+    }
+
+    h--;
+
+    push(type);
+  }
+
+  //jumpIfFalse(int)
+  //Jump to target, the value tested still stacked, if it is falsey.
+  private void jumpIfFalse(int target) {
+    jumpIfFalse(target, h - 1);
+  }
+
+  //jumpIfFalsePop(int)
+  //As jumpIfFalse, but the value is popped on both paths.
+  private void jumpIfFalsePop(int target) {
+    h--;
+
+    jumpIfFalse(target, h);
+  }
+
+  //jumpIfFalse(int, int)
+  //Branch on the value in slot a, given the slot types at target.
+  private void jumpIfFalse(int target, int a) {
+    Label label = edge(target);
+
+    switch (t[a]) {
+      case T_BOOL:
+        load(a);
+        mv.visitJumpInsn(IFEQ, label);
+
+        break;
+      case T_LONG:
+        load(a);
+        mv.visitInsn(LCONST_0);
+        mv.visitInsn(LCMP);
+        mv.visitJumpInsn(IFEQ, label);
+
+        break;
+      case T_DOUBLE: //floats are never falsey
+        break;
+      default:
+        load(a);
+        runtime("isFalsey", "(" + OBJECT_DESC + ")Z");
+        mv.visitJumpInsn(IFNE, label);
+
+        break;
+    }
+  }
+
+  //constant(int)
+  private void constant(int index) {
+    Object constant = constants[index];
+
+    if (constant == null) {
+      mv.visitInsn(ACONST_NULL);
+      push(T_OBJ);
+    } else if (constant instanceof Boolean) {
+      mv.visitInsn((Boolean)constant ? ICONST_1 : ICONST_0);
+      push(T_BOOL);
+    } else {
+      mv.visitLdcInsn(constant);
+      push((constant instanceof Long) ? T_LONG : (constant instanceof Double) ? T_DOUBLE : T_OBJ);
+    }
+  }
+
+  //getLocal(int)
+  private void getLocal(int slot) {
+    load(slot);
+    push(t[slot]);
+  }
+
+  //setLocal(int)
+  //Assignment is an expression; the value stays stacked.
+  private void setLocal(int slot) {
+    load(h - 1);
+    store(slot, t[h - 1]);
+  }
+
+  //setGlobal(int)
+  private void setGlobal(int slot) {
+    vm();
+    iconst(slot);
+    loadBoxed(h - 1);
+    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitSetGlobal", "(I" + OBJECT_DESC + ")V", false);
+  }
+
+  //getField(int)
+  private void getField(int slot) {
+    vm();
+    loadBoxed(h - 1);
+    iconst(slot);
+    runtime("getField", "(L" + VM + ";" + OBJECT_DESC + "I)" + OBJECT_DESC);
+
+    h--;
+
+    push(T_OBJ);
+  }
+
+  //setField(int)
+  //Leaves the new value stacked in place of the object.
+  private void setField(int slot) {
+    vm();
+    loadBoxed(h - 2);
+    iconst(slot);
+    loadBoxed(h - 1);
+    runtime("setField", "(L" + VM + ";" + OBJECT_DESC + "I" + OBJECT_DESC + ")V");
+
+    load(h - 1);
+    store(h - 2, t[h - 1]);
+
+    h--;
+  }
+
+  //call(int)
+  private void call(int argCount) {
+    int callee = h - 1 - argCount;
+    Label done = new Label();
+
+    if (isDirect(callee, argCount, params)) {
+      Label slow = new Label();
+
+      self(callee, slow);
+
+      vm();
+
+      for (int i = 0; i <= argCount; i++)
+        loadAs(callee + i, params[i]);
+
+      mv.visitMethodInsn(INVOKESTATIC, className, "body", bodyDesc, false);
+
+      //the body may hand back a tail call it could not make
+      mv.visitInsn(DUP);
+      mv.visitFieldInsn(GETSTATIC, CODE, "TAIL_CALL", OBJECT_DESC);
+      mv.visitJumpInsn(IF_ACMPNE, done);
+      mv.visitInsn(POP);
+      vm();
+      mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitCallPending", "()" + OBJECT_DESC, false);
+      mv.visitJumpInsn(GOTO, done);
+
+      mv.visitLabel(slow);
+    }
+
+    for (int i = 0; i <= argCount; i++)
+      pushToVM(callee + i);
+
+    vm();
+    iconst(argCount);
+    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitCall", "(I)" + OBJECT_DESC, false);
+
+    mv.visitLabel(done);
+
+    h = callee;
+
+    push(T_OBJ);
+  }
+
+  //tailCall(int)
+  //A self tail call rebinds the slots and jumps back to the start;
+  //any other is handed back to the VM to make.
+  private void tailCall(int argCount) {
+    int callee = h - 1 - argCount;
+
+    if (isDirect(callee, argCount, states[0])) {
+      Label slow = new Label();
+
+      self(callee, slow);
+
+      //the callee sits above every local, so no argument is
+      //overwritten before it is moved
+      for (int i = 0; i <= argCount; i++) {
+        loadAs(callee + i, states[0][i]);
+
+        mv.visitVarInsn(storeOp(states[0][i]), local(i, states[0][i]));
+      }
+
+      mv.visitJumpInsn(GOTO, labels[0]);
+
+      mv.visitLabel(slow);
+    }
+
+    for (int i = 0; i <= argCount; i++)
+      pushToVM(callee + i);
+
+    vm();
+    iconst(argCount);
+    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitTailCall", "(I)" + OBJECT_DESC, false);
+    mv.visitInsn(ARETURN);
+  }
+
+  //self(int, Label)
+  //Jump to slow unless the callee in slot is this function; if it
+  //is, charge for the call as the VM would.
+  private void self(int slot, Label slow) {
+    load(slot);
+    mv.visitFieldInsn(GETSTATIC, className, "function", FUNCTION_DESC);
+    runtime("isSelf", "(" + OBJECT_DESC + FUNCTION_DESC + ")Z");
+    mv.visitJumpInsn(IFEQ, slow);
+
+    vm();
+    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitCharge", "()V", false);
+  }
+
+  //isDirect(int, int, byte[])
+  //Whether a call of this function from slot could pass its
+  //arguments straight into slots typed as types.
+  private boolean isDirect(int callee, int argCount, byte[] types) {
+    if (t[callee] != T_OBJ || argCount != function.arity())
+      return false;
+
+    for (int i = 1; i <= argCount; i++)
+      if (t[callee + i] != types[i] && types[i] != T_OBJ)
+        return false;
+
+    return true;
+  }
+
+  //invoke(int, int, int)
+  private void invoke(int site, int nameIndex, int argCount) {
+    int receiver = h - 1 - argCount;
+
+    for (int i = 0; i <= argCount; i++)
+      pushToVM(receiver + i);
+
+    vm();
+    mv.visitFieldInsn(GETSTATIC, className, "caches", CACHES_DESC);
+    iconst(site);
+    mv.visitLdcInsn(constants[nameIndex]);
+    iconst(argCount);
+    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitInvoke", "(" + CACHES_DESC + "ILjava/lang/String;I)" + OBJECT_DESC, false);
+
+    h = receiver;
+
+    push(T_OBJ);
+  }
+
+  //pushToVM(int)
+  //Push slot's value onto the VM's vStack.
+  private void pushToVM(int slot) {
+    vm();
+    load(slot);
+
+    switch (t[slot]) {
+      case T_LONG:
+        mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitPushInt", "(J)V", false);
+
+        break;
+      case T_DOUBLE:
+        mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitPushFloat", "(D)V", false);
+
+        break;
+      default:
+        box(t[slot]);
+        mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitPush", "(" + OBJECT_DESC + ")V", false);
+
+        break;
+    }
+  }
+
+  //error(String)
+  //Report message as a runtime error, and unwind.
+  private void error(String message) {
+    vm();
+    mv.visitLdcInsn(message);
+    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "jitError", "(Ljava/lang/String;)Ljava/lang/RuntimeException;", false);
+    mv.visitInsn(ATHROW);
+  }
+
+  //bool(int)
+  //Turn the comparison just made into a boolean, true if the
+  //given conditional jump would be taken.
+  private void bool(int jumpOp) {
+    Label yes = new Label();
+    Label end = new Label();
+
+    mv.visitJumpInsn(jumpOp, yes);
+    mv.visitInsn(ICONST_0);
+    mv.visitJumpInsn(GOTO, end);
+    mv.visitLabel(yes);
+    mv.visitInsn(ICONST_1);
+    mv.visitLabel(end);
+  }
+
+  //push(byte)
+  //Store the JVM stack's top value into a new top slot.
+  private void push(byte type) {
+    store(h++, type);
+  }
+
+  //load(int)
+  private void load(int slot) {
+    mv.visitVarInsn(loadOp(t[slot]), local(slot, t[slot]));
+  }
+
+  //store(int, byte)
+  private void store(int slot, byte type) {
+    t[slot] = type;
+
+    mv.visitVarInsn(storeOp(type), local(slot, type));
+  }
+
+  //loadBoxed(int)
+  private void loadBoxed(int slot) {
+    load(slot);
+    box(t[slot]);
+  }
+
+  //loadAs(int, byte)
+  //Load slot as type, which is either its own type or T_OBJ.
+  private void loadAs(int slot, byte type) {
+    load(slot);
+
+    if (t[slot] != type)
+      box(t[slot]);
+  }
+
+  //loadDouble(int)
+  private void loadDouble(int slot) {
+    load(slot);
+
+    if (t[slot] == T_LONG)
+      mv.visitInsn(L2D);
+  }
+
+  //box(byte)
+  private void box(byte type) {
+    switch (type) {
+      case T_LONG:
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;", false);
+
+        break;
+      case T_DOUBLE:
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+
+        break;
+      case T_BOOL:
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+
+        break;
+    }
+  }
+
+  //vm()
+  private void vm() {
+    mv.visitVarInsn(ALOAD, 0);
+  }
+
+  //runtime(String, String)
+  private void runtime(String name, String desc) {
+    mv.visitMethodInsn(INVOKESTATIC, RUNTIME, name, desc, false);
+  }
+
+  //iconst(int)
+  private void iconst(int value) {
+    mv.visitLdcInsn(value);
+  }
+
+  //local(int, byte)
+  //The JVM local holding slot's value when it has type.
+  private int local(int slot, byte type) {
+    int local = firstLocal + slot * LOCALS_PER_SLOT;
+
+    switch (type) {
+      case T_LONG:   return local + 1;
+      case T_DOUBLE: return local + 3;
+      case T_BOOL:   return local + 5;
+      default:       return local;
+    }
+  }
+
+  //length(int)
+  //Length in bytes, operands included, of the (supported)
+  //instruction at offset.
+  private int length(int offset) {
+    byte code = codes[offset];
+
+    switch (code) {
+      case OP_CALL:
+      case OP_GET_LOCAL:
+      case OP_SET_LOCAL:
+      case OP_SET_LOCAL_POP:
+      case OP_TAIL_CALL:
+        return 2;
+      case OP_GET_LOCAL_GET_LOCAL_ADD:
+        return 3;
+      case OP_INVOKE:
+      case OP_LOADK:
+      case OP_ADD_RR:
+      case OP_DIVIDE_RR:
+      case OP_MULTIPLY_RR:
+      case OP_SUBTRACT_RR:
+        return 4;
+      case OP_MOVE:
+        return 3;
+      case OP_ADD_RK:
+      case OP_JUMP_IF_NOT_LESS_RR:
+      case OP_SUBTRACT_RK:
+        return 5;
+      case OP_JUMP_IF_NOT_LESS_RK:
+        return 6;
+      default:
+        return C_OpCode.hasWideOperand(code) ? 3 : 1;
+    }
+  }
+
+  //genericCodes(C_InstrList)
+  //The compilation's codes as the compiler emitted them: the code
+  //array the interpreter runs may hold quickened forms, rewritten
+  //at any time by any VM.
+  private static byte[] genericCodes(C_InstrList instrList) {
+    List<Byte> codes = instrList.codes();
+    byte[] array = new byte[codes.size()];
+
+    for (int i = 0; i < array.length; i++)
+      array[i] = codes.get(i);
+
+    return array;
+  }
+
+  //stackOp(byte)
+  //The stack arithmetic op a register arithmetic op stands for.
+  private static byte stackOp(byte code) {
+    switch (code) {
+      case OP_ADD_RK:
+      case OP_ADD_RR:      return OP_ADD;
+      case OP_DIVIDE_RR:   return OP_DIVIDE;
+      case OP_MULTIPLY_RR: return OP_MULTIPLY;
+      default:             return OP_SUBTRACT;
+    }
+  }
+
+  //readShort(int)
+  private int readShort(int offset) {
+    return ((codes[offset] & 0xFF) << 8) | (codes[offset + 1] & 0xFF);
+  }
+
+  //isNumber(byte)
+  private static boolean isNumber(byte type) {
+    return type == T_LONG || type == T_DOUBLE;
+  }
+
+  //operation(byte)
+  //JitRuntime's method for an arithmetic opcode.
+  private static String operation(byte code) {
+    switch (code) {
+      case OP_ADD:      return "add";
+      case OP_SUBTRACT: return "subtract";
+      case OP_MULTIPLY: return "multiply";
+      default:          return "divide"; //OP_DIVIDE
+    }
+  }
+
+  //longOp(byte)
+  private static int longOp(byte code) {
+    switch (code) {
+      case OP_ADD:      return LADD;
+      case OP_SUBTRACT: return LSUB;
+      case OP_MULTIPLY: return LMUL;
+      default:          return LDIV; //OP_DIVIDE
+    }
+  }
+
+  //doubleOp(byte)
+  private static int doubleOp(byte code) {
+    switch (code) {
+      case OP_ADD:      return DADD;
+      case OP_SUBTRACT: return DSUB;
+      case OP_MULTIPLY: return DMUL;
+      default:          return DDIV; //OP_DIVIDE
+    }
+  }
+
+  //loadOp(byte)
+  private static int loadOp(byte type) {
+    switch (type) {
+      case T_LONG:   return LLOAD;
+      case T_DOUBLE: return DLOAD;
+      case T_BOOL:   return ILOAD;
+      default:       return ALOAD;
+    }
+  }
+
+  //storeOp(byte)
+  private static int storeOp(byte type) {
+    switch (type) {
+      case T_LONG:   return LSTORE;
+      case T_DOUBLE: return DSTORE;
+      case T_BOOL:   return ISTORE;
+      default:       return ASTORE;
+    }
+  }
+
+  //descriptor(byte)
+  private static String descriptor(byte type) {
+    switch (type) {
+      case T_LONG:   return "J";
+      case T_DOUBLE: return "D";
+      default:       return OBJECT_DESC;
+    }
+  }
+
+  //size(byte)
+  //JVM local slots taken by a value of type.
+  private static int size(byte type) {
+    return (type == T_LONG || type == T_DOUBLE) ? 2 : 1;
+  }
+
+  //An edge whose target expects some slots boxed.
+  private static class Stub {
+    private final Label label = new Label();
+    private final byte[] types; //slot types leaving the source
+    private final int target;
+
+    //Stub(byte[], int)
+    private Stub(byte[] types, int target) {
+      this.types = types;
+      this.target = target;
+    }
+  }
+}
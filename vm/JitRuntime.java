@@ -0,0 +1,124 @@
+package jbLPC.vm;
+
+import static jbLPC.compiler.C_ConstantFolder.NOT_CONSTANT;
+import static jbLPC.compiler.C_OpCode.OP_ADD;
+import static jbLPC.compiler.C_OpCode.OP_DIVIDE;
+import static jbLPC.compiler.C_OpCode.OP_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_GREATER;
+import static jbLPC.compiler.C_OpCode.OP_LESS;
+import static jbLPC.compiler.C_OpCode.OP_MULTIPLY;
+import static jbLPC.compiler.C_OpCode.OP_NEGATE;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT;
+
+import jbLPC.compiler.C_ConstantFolder;
+import jbLPC.compiler.C_Function;
+
+//Operations JIT-compiled code calls out to when the types of its
+//operands are not known statically.  Values are boxed; semantics
+//are the VM's, by way of C_ConstantFolder, with any failure
+//reported as the VM would report it.
+final class JitRuntime {
+  //JitRuntime()
+  private JitRuntime() {}
+
+  //isSelf(Object, C_Function)
+  //Whether callee is a closure of function.  JIT-compiled functions
+  //have no upvalues, so all their closures are interchangeable.
+  static boolean isSelf(Object callee, C_Function function) {
+    return callee instanceof Closure && ((Closure)callee).compilation() == function;
+  }
+
+  //add(VM, Object, Object)
+  static Object add(VM vm, Object a, Object b) {
+    Object result = C_ConstantFolder.fold(OP_ADD, a, b);
+
+    if (result == NOT_CONSTANT)
+      throw vm.jitError("Operands must be two numbers or two strings.");
+
+    return result;
+  }
+
+  //subtract(VM, Object, Object)
+  static Object subtract(VM vm, Object a, Object b) {
+    return numeric(vm, OP_SUBTRACT, a, b);
+  }
+
+  //multiply(VM, Object, Object)
+  static Object multiply(VM vm, Object a, Object b) {
+    return numeric(vm, OP_MULTIPLY, a, b);
+  }
+
+  //divide(VM, Object, Object)
+  static Object divide(VM vm, Object a, Object b) {
+    if (!isNumber(a) || !isNumber(b))
+      throw vm.jitError("Operands must be two numbers.");
+
+    Object result = C_ConstantFolder.fold(OP_DIVIDE, a, b);
+
+    if (result == NOT_CONSTANT)
+      throw vm.jitError("Division by zero.");
+
+    return result;
+  }
+
+  //greater(VM, Object, Object)
+  static boolean greater(VM vm, Object a, Object b) {
+    return (Boolean)numeric(vm, OP_GREATER, a, b);
+  }
+
+  //less(VM, Object, Object)
+  static boolean less(VM vm, Object a, Object b) {
+    return (Boolean)numeric(vm, OP_LESS, a, b);
+  }
+
+  //equal(Object, Object)
+  static boolean equal(Object a, Object b) {
+    return (Boolean)C_ConstantFolder.fold(OP_EQUAL, a, b);
+  }
+
+  //negate(VM, Object)
+  static Object negate(VM vm, Object a) {
+    Object result = C_ConstantFolder.fold(OP_NEGATE, a);
+
+    if (result == NOT_CONSTANT)
+      throw vm.jitError("Operand must be a number");
+
+    return result;
+  }
+
+  //isFalsey(Object)
+  static boolean isFalsey(Object value) {
+    return C_ConstantFolder.isFalsey(value);
+  }
+
+  //getField(VM, Object, int)
+  static Object getField(VM vm, Object value, int slot) {
+    if (!(value instanceof LPCObject))
+      throw vm.jitError("Only objects have fields.");
+
+    return ((LPCObject)value).getField(slot);
+  }
+
+  //setField(VM, Object, int, Object)
+  static void setField(VM vm, Object value, int slot, Object fieldValue) {
+    if (!(value instanceof LPCObject))
+      throw vm.jitError("Only objects have fields.");
+
+    ((LPCObject)value).setField(slot, fieldValue);
+  }
+
+  //numeric(VM, byte, Object, Object)
+  private static Object numeric(VM vm, byte code, Object a, Object b) {
+    Object result = C_ConstantFolder.fold(code, a, b);
+
+    if (result == NOT_CONSTANT)
+      throw vm.jitError("Operands must be two numbers.");
+
+    return result;
+  }
+
+  //isNumber(Object)
+  private static boolean isNumber(Object value) {
+    return value instanceof Long || value instanceof Double;
+  }
+}
@@ -3,17 +3,23 @@ package jbLPC.vm;
 import java.util.HashMap;
 import java.util.Map;
 
+import jbLPC.compiler.C_Compilation;
+import jbLPC.compiler.C_ObjectCompilation;
+
 public class LPCObject {
   private String name;
   private LPCObject superObj;
-  private Map<String, Object> fields;
+  private C_ObjectCompilation layout; //program fixing our field slots
+  private Object[] slots; //field values, indexed by slot
   private Map<String, Closure> methods;
+  private boolean constructed;
 
-  //LPCObject(String)
-  public LPCObject(String name) {
+  //LPCObject(String, C_ObjectCompilation)
+  public LPCObject(String name, C_ObjectCompilation layout) {
     this.name = name;
+    this.layout = layout;
 
-    fields = new HashMap<>();
+    slots = new Object[layout.fieldCount()];
     methods = new HashMap<>();
   }
 
@@ -22,9 +28,25 @@ public class LPCObject {
     return name;
   }
 
-  //fields()
-  public Map<String, Object> fields() {
-    return fields;
+  //fieldSlot(String)
+  //Return the named field's slot, or -1 if there is none.
+  public int fieldSlot(String fieldName) {
+    return layout.fieldSlot(fieldName);
+  }
+
+  //getField(int)
+  public Object getField(int slot) {
+    return slots[slot];
+  }
+
+  //setField(int, Object)
+  public void setField(int slot, Object value) {
+    slots[slot] = value;
+  }
+
+  //fieldCount()
+  public int fieldCount() {
+    return slots.length;
   }
 
   //methods()
@@ -32,16 +54,31 @@ public class LPCObject {
     return methods;
   }
 
+  //program()
+  //The program that built this object, once construction
+  //completes; null until then.
+  public C_Compilation program() {
+    return constructed ? layout : null;
+  }
+
+  //markConstructed()
+  public void markConstructed() {
+    constructed = true;
+  }
+
   //superObj()
   public LPCObject superObj() {
     return superObj;
   }
 
   //inherit(LPCObject)
+  //Inherited fields occupy the leading slots of our layout.
   public void inherit(LPCObject superObj) {
     this.superObj = superObj;
-    this.fields = superObj.fields();
-    this.methods = superObj.methods();
+
+    System.arraycopy(superObj.slots, 0, slots, 0, superObj.slots.length);
+
+    methods.putAll(superObj.methods());
   }
 
   //toString()
@@ -1,23 +1,67 @@
 package jbLPC.vm;
 
 import jbLPC.compiler.C_Compilation;
+import jbLPC.compiler.C_Function;
+import jbLPC.compiler.C_InstrList;
 
+//A call frame.  The VM keeps a fixed pool of these, one per call
+//depth, and rebinds them on every call, so calls do not allocate.
 public class RunFrame {
-  private Closure closure;
+  //marks, in a site's cache slot, an instruction that has been
+  //de-quickened and should stay generic
+  private static final Object GENERIC = new Object();
+
+  private C_Compilation compilation;
+  private Closure closure; //null for script and object frames
+  private C_Function function; //closure's, if any
   private int base; //index of bottom-most vStack value in this frame
   private int ip; //instruction pointer
+  private byte[] codes; //cached from compilation's C_InstrList
+  private Object[] constants; //cached from compilation's C_InstrList
+  private Object[] caches; //cached from compilation's C_InstrList
+
+  //RunFrame()
+  RunFrame() {}
+
+  //bind(Closure, int)
+  void bind(Closure closure, int base) {
+    bind(closure.compilation(), base);
 
-  //RunFrame(Compilation, int)
-  RunFrame(C_Compilation compilation, int base) {
-    this(new Closure(compilation), base);
-  }
-  
-  //RunFrame(Closure, int)
-  RunFrame(Closure closure, int base) {
     this.closure = closure;
-	this.base = base;
-	  
-	ip = 0;
+    this.function = (C_Function)closure.compilation();
+  }
+
+  //bind(C_Compilation, int)
+  //Script and object compilations have no upvalues, so their
+  //frames need no Closure.
+  void bind(C_Compilation compilation, int base) {
+    this.compilation = compilation;
+    this.closure = null;
+    this.function = null;
+    this.base = base;
+
+    C_InstrList instrList = compilation.instrList();
+
+    codes = instrList.codeArray();
+    constants = instrList.constantArray();
+    caches = instrList.siteCaches();
+    ip = 0;
+  }
+
+  //release()
+  //Drop references held for the last call bound to this frame.
+  void release() {
+    compilation = null;
+    closure = null;
+    function = null;
+    codes = null;
+    constants = null;
+    caches = null;
+  }
+
+  //compilation()
+  public C_Compilation compilation() {
+    return compilation;
   }
 
   //closure()
@@ -25,6 +69,11 @@ public class RunFrame {
     return closure;
   }
 
+  //function()
+  public C_Function function() {
+    return function;
+  }
+
   //base()
   public int base() {
     return base;
@@ -36,15 +85,79 @@ public class RunFrame {
   }
   
   //nextInstr()
-  public Byte nextInstr() {
-    return closure.compilation().instrList().codes().get(ip++);
+  public byte nextInstr() {
+    return codes[ip++];
+  }
+
+  //readByte()
+  //Read a one-byte, unsigned operand.
+  public int readByte() {
+    return codes[ip++] & 0xFF;
+  }
+
+  //readShort()
+  //Read a two-byte, unsigned, big-endian operand.
+  public int readShort() {
+    ip += 2;
+
+    return ((codes[ip - 2] & 0xFF) << 8) | (codes[ip - 1] & 0xFF);
   }
   
-  //getConstant(byte)
-  public Object getConstant(byte index) {
-	  return closure.compilation().instrList().constants().get(index);
+  //getConstant(int)
+  public Object getConstant(int index) {
+	  return constants[index];
   }
   
+  //inlineCache(int)
+  //Return the InlineCache for the instruction at offset site,
+  //creating it on first use.  VMs racing to create one each keep
+  //their own; the last written is the one that stays.
+  public InlineCache inlineCache(int site) {
+    return inlineCache(caches, site);
+  }
+
+  //inlineCache(Object[], int)
+  //As inlineCache(int), given the compilation's site caches.
+  static InlineCache inlineCache(Object[] caches, int site) {
+    InlineCache cache = (InlineCache)caches[site];
+
+    if (cache == null) {
+      cache = new InlineCache();
+
+      caches[site] = cache;
+    }
+
+    return cache;
+  }
+
+  //rewrite(int, byte)
+  //Overwrite the opcode at offset site.  The code array is shared
+  //by every VM running the compilation; the write is not locked,
+  //since both the old and the new opcode are correct at the site
+  //and take the same operands.
+  public void rewrite(int site, byte code) {
+    codes[site] = code;
+  }
+
+  //quicken(int, byte)
+  //Rewrite the instruction at site to the quickened form code,
+  //unless it has already been de-quickened.  For sites without an
+  //InlineCache only.
+  public void quicken(int site, byte code) {
+    if (caches[site] != GENERIC)
+      codes[site] = code;
+  }
+
+  //dequicken(int, byte)
+  //Revert the instruction at site to the generic form code, for
+  //good, and back up to run it.  For sites without an InlineCache
+  //only.
+  public void dequicken(int site, byte code) {
+    caches[site] = GENERIC;
+    codes[site] = code;
+    ip = site;
+  }
+
   //setIP(int)
   public void setIP(int ip) {
 	  this.ip = ip;
@@ -53,6 +166,6 @@ public class RunFrame {
   //toString()
   @Override
   public String toString() {
-    return "@RunFrame: " + closure + "@";
+    return "@RunFrame: " + compilation.name() + "@";
   }
 }
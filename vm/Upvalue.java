@@ -3,7 +3,6 @@ package jbLPC.vm;
 public class Upvalue {
   private int location;
   private Object closedValue;
-  private Upvalue next;
 
   //Upvalue(int)
   public Upvalue(int location) {
@@ -30,16 +29,6 @@ public class Upvalue {
     this.closedValue = closedValue;
   }
 
-  //next()
-  public Upvalue next() {
-    return next;
-  }
-
-  //setNext(Upvalue)
-  public void setNext(Upvalue next) {
-    this.next = next;
-  }
-
   //toString()
   @Override
   public String toString() {
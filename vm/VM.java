@@ -1,72 +1,112 @@
 package jbLPC.vm;
 
+import static jbLPC.compiler.C_Compilation.C_CompilationType.TYPE_OBJECT;
 import static jbLPC.compiler.C_Compilation.C_CompilationType.TYPE_SCRIPT;
 import static jbLPC.compiler.C_OpCode.OP_ADD;
+import static jbLPC.compiler.C_OpCode.OP_ADD_NUM;
+import static jbLPC.compiler.C_OpCode.OP_ADD_RK;
+import static jbLPC.compiler.C_OpCode.OP_ADD_RR;
+import static jbLPC.compiler.C_OpCode.OP_ADD_STR;
 import static jbLPC.compiler.C_OpCode.OP_ARRAY;
 import static jbLPC.compiler.C_OpCode.OP_CALL;
 import static jbLPC.compiler.C_OpCode.OP_CLOSE_UPVAL;
 import static jbLPC.compiler.C_OpCode.OP_CLOSURE;
 import static jbLPC.compiler.C_OpCode.OP_COMPILE;
 import static jbLPC.compiler.C_OpCode.OP_CONSTANT;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT_ADD;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT_ADD_NUM;
+import static jbLPC.compiler.C_OpCode.OP_CONSTANT_ADD_STR;
 import static jbLPC.compiler.C_OpCode.OP_DEF_GLOBAL;
 import static jbLPC.compiler.C_OpCode.OP_DIVIDE;
+import static jbLPC.compiler.C_OpCode.OP_DIVIDE_RR;
 import static jbLPC.compiler.C_OpCode.OP_EQUAL;
 import static jbLPC.compiler.C_OpCode.OP_FALSE;
 import static jbLPC.compiler.C_OpCode.OP_FIELD;
+import static jbLPC.compiler.C_OpCode.OP_GET_FIELD_CACHED;
+import static jbLPC.compiler.C_OpCode.OP_GET_FIELD_SLOT;
 import static jbLPC.compiler.C_OpCode.OP_GET_GLOBAL;
 import static jbLPC.compiler.C_OpCode.OP_GET_ITEM;
 import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL;
+import static jbLPC.compiler.C_OpCode.OP_GET_LOCAL_GET_LOCAL_ADD;
+import static jbLPC.compiler.C_OpCode.OP_GET_METHOD_CACHED;
 import static jbLPC.compiler.C_OpCode.OP_GET_PROP;
 import static jbLPC.compiler.C_OpCode.OP_GET_SUPER;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_FIELD;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_FIELD_CACHED;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_METHOD_CACHED;
+import static jbLPC.compiler.C_OpCode.OP_GET_THIS_PROP;
 import static jbLPC.compiler.C_OpCode.OP_GET_UPVAL;
 import static jbLPC.compiler.C_OpCode.OP_GREATER;
+import static jbLPC.compiler.C_OpCode.OP_GREATER_EQUAL;
 import static jbLPC.compiler.C_OpCode.OP_INHERIT;
 import static jbLPC.compiler.C_OpCode.OP_INVOKE;
 import static jbLPC.compiler.C_OpCode.OP_JUMP;
 import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_FALSE;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_FALSE_POP;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_NOT_LESS_RK;
+import static jbLPC.compiler.C_OpCode.OP_JUMP_IF_NOT_LESS_RR;
 import static jbLPC.compiler.C_OpCode.OP_LESS;
+import static jbLPC.compiler.C_OpCode.OP_LESS_EQUAL;
+import static jbLPC.compiler.C_OpCode.OP_LOADK;
 import static jbLPC.compiler.C_OpCode.OP_LOOP;
 import static jbLPC.compiler.C_OpCode.OP_MAPPING;
 import static jbLPC.compiler.C_OpCode.OP_METHOD;
+import static jbLPC.compiler.C_OpCode.OP_MOVE;
 import static jbLPC.compiler.C_OpCode.OP_MULTIPLY;
+import static jbLPC.compiler.C_OpCode.OP_MULTIPLY_RR;
 import static jbLPC.compiler.C_OpCode.OP_NEGATE;
 import static jbLPC.compiler.C_OpCode.OP_NIL;
 import static jbLPC.compiler.C_OpCode.OP_NOT;
+import static jbLPC.compiler.C_OpCode.OP_NOT_EQUAL;
 import static jbLPC.compiler.C_OpCode.OP_OBJECT;
 import static jbLPC.compiler.C_OpCode.OP_POP;
 import static jbLPC.compiler.C_OpCode.OP_RETURN;
+import static jbLPC.compiler.C_OpCode.OP_SET_FIELD_SLOT;
 import static jbLPC.compiler.C_OpCode.OP_SET_GLOBAL;
+import static jbLPC.compiler.C_OpCode.OP_SET_GLOBAL_POP;
 import static jbLPC.compiler.C_OpCode.OP_SET_ITEM;
 import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL;
+import static jbLPC.compiler.C_OpCode.OP_SET_LOCAL_POP;
 import static jbLPC.compiler.C_OpCode.OP_SET_PROP;
 import static jbLPC.compiler.C_OpCode.OP_SET_UPVAL;
 import static jbLPC.compiler.C_OpCode.OP_SUBTRACT;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT_RK;
+import static jbLPC.compiler.C_OpCode.OP_SUBTRACT_RR;
 import static jbLPC.compiler.C_OpCode.OP_SUPER_INVOKE;
+import static jbLPC.compiler.C_OpCode.OP_TAIL_CALL;
+import static jbLPC.compiler.C_OpCode.OP_TAIL_INVOKE;
 import static jbLPC.compiler.C_OpCode.OP_TRUE;
 
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.lang.StackWalker.StackFrame;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 import jbLPC.compiler.C_Compilation;
 import jbLPC.compiler.C_Compiler;
 import jbLPC.compiler.C_Function;
+import jbLPC.compiler.C_GlobalTable;
 import jbLPC.compiler.C_HasArity;
 import jbLPC.compiler.C_InstrList;
+import jbLPC.compiler.C_ObjectCompilation;
 import jbLPC.compiler.C_ObjectCompiler;
+import jbLPC.compiler.C_Precompiler;
 import jbLPC.debug.Debugger;
 import jbLPC.nativefn.NativeClock;
 import jbLPC.nativefn.NativeCompileLPCObject;
+import jbLPC.nativefn.NativeEvalCost;
 import jbLPC.nativefn.NativeFn;
 import jbLPC.nativefn.NativeFoo;
+import jbLPC.nativefn.NativeMaxEvalCost;
 import jbLPC.nativefn.NativePrint;
 import jbLPC.nativefn.NativePrintLn;
+import jbLPC.util.HostOutput;
 import jbLPC.util.Prefs;
 import jbLPC.util.SourceFile;
-import omitoas.app.jmud.JMudPlayer;
 import jbLPC.util.ObjStack;
 
 public class VM {
@@ -85,32 +125,99 @@ public class VM {
     OPERATION_DIVIDE,
     OPERATION_GT,
     OPERATION_LT,
+    OPERATION_GE,
+    OPERATION_LE,
   }
   
+  //Calls deeper than this fail with "Too deep recursion."
+  public static final int DEFAULT_MAX_CALL_DEPTH = 1000;
+
+  //Eval cost budget of a top-level entry; one unit is charged per
+  //backward jump and per call.  Exceeding it fails the entry with
+  //"Too long evaluation."
+  public static final long DEFAULT_MAX_EVAL_COST = 10_000_000L;
+
+  //Calls of, plus backward jumps in, a function before it is
+  //compiled to JVM code (see JitCompiler); 0 to never compile.
+  public static final int DEFAULT_JIT_THRESHOLD = 1000;
+
+  //Calls a compiled function may refuse (see JitCode.DEOPT) before
+  //it is recompiled for arguments of any type.
+  private static final int MAX_DEOPTS = 100;
+
+  //Cost units between checkpoints, where the budget and the
+  //deadline are actually tested.
+  private static final int EVAL_CHECK_INTERVAL = 4096;
+
+  //Marks a global slot that has no value yet (nil is a value).
+  private static final Object UNDEFINED = new Object();
+
   private Debugger debugger;
+  private HostOutput user;
 
-  private Map<String, Object> globals;
+  private Object[] globals; //indexed by C_GlobalTable slot
   private Map<String, NativeFn> nativeFns;
   private ObjStack vStack; //Value stack
-  private Stack<RunFrame> fStack; //RunFrame stack
-  private Upvalue openUpvalues; //linked list
+  private RunFrame[] frames; //pooled, one per call depth
+  private int frameCount; //current call depth
+  private Upvalue[] openUpvalues; //by vStack slot; null if not captured
+  private int openTop; //past the highest slot with an open upvalue
+  private String libPath;
+
+  private long maxEvalCost; //0 if unlimited
+  private long maxEvalTime; //in ms; 0 if unlimited
+  private long evalCost; //charged at checkpoints so far
+  private int evalChunk; //cost units granted at the last checkpoint
+  private int evalLeft; //of evalChunk; counts down below 0
+  private long evalDeadline; //System.nanoTime(); 0 if none
+
+  private int jitThreshold; //0 if off
+  private boolean registerCode; //build objects as register code
+  private boolean optimize; //peephole-optimize the objects it builds
+  private int jitDepth; //compiled calls running, on top of frameCount
+  private int[] jitBases; //frameCount as each compiled call began
+  private int exitDepth; //run() returns once frameCount falls to this
+  private int pendingArgs; //of a tail call compiled code handed back
 
   public boolean execCompilation;
+  private boolean traceExecution; //snapshot of the 'exec' debug flag
 
-  //VM()
+  //VM(Debugger)
   public VM(Debugger debugger) {
+    this(debugger, HostOutput.STDOUT);
+  }
+
+  //VM(Debugger, HostOutput)
+  public VM(Debugger debugger, HostOutput user) {
 	this.debugger = debugger;
+    this.user = user;
 
-    globals = new HashMap<>();
+    globals = new Object[0];
     nativeFns = new HashMap<>();
+    libPath = Prefs.instance().getString("PATH_LIB");
+
+    if (libPath == null)
+      libPath = "/Users/jonathan/lib";
+
+    int maxCallDepth = Prefs.instance().getInt("MAX_CALL_DEPTH", DEFAULT_MAX_CALL_DEPTH);
+
+    frames = new RunFrame[(maxCallDepth < 1) ? DEFAULT_MAX_CALL_DEPTH : maxCallDepth];
+    jitBases = new int[frames.length];
+    openUpvalues = new Upvalue[16];
+    maxEvalCost = Prefs.instance().getLong("MAX_EVAL_COST", DEFAULT_MAX_EVAL_COST);
+    maxEvalTime = Prefs.instance().getLong("MAX_EVAL_TIME", 0);
+    jitThreshold = Prefs.instance().getInt("JIT_THRESHOLD", DEFAULT_JIT_THRESHOLD);
+    optimize = true;
 
     defineNativeFn("clock", new NativeClock(this, "Clock", 0));
     defineNativeFn("foo", new NativeFoo(this, "Foo", 3));
     defineNativeFn("print", new NativePrint(this, "Print", 1));
     defineNativeFn("println", new NativePrintLn(this, "PrintLn", -1)); //variadic, 0 or 1 args
     defineNativeFn("compile", new NativeCompileLPCObject(this, "Compile", 1));
+    defineNativeFn("eval_cost", new NativeEvalCost(this, "EvalCost", 0));
+    defineNativeFn("max_eval_cost", new NativeMaxEvalCost(this, "MaxEvalCost", 0));
 
-    reset(); //vStack, fStack, openUpvalues, execCompilation
+    reset(); //vStack, frames, openUpvalues, execCompilation
 
     debugger.printProgress("VM initialized");
   }
@@ -118,17 +225,27 @@ public class VM {
   //interpret(String)
   public InterpretResult interpret(C_Compilation compilation) {
     debugger.printProgress("Executing script '" + compilation.name() + "'");
-    
+
+    //Debug flags are consulted here, once per entry, never in run().
+    traceExecution = debugger.snapshotTraceFlags();
+
+    //make room for any globals the compilation introduced
+    ensureGlobals(C_GlobalTable.instance().size());
+
+    beginEval();
+
     vStack.push(compilation);
 
-    frame(compilation);
+    if (!frame(compilation))
+      return InterpretResult.INTERPRET_RUNTIME_ERROR;
     
     return run();
   }
 
   //run()
   private InterpretResult run() {
-    RunFrame frame = fStack.peek(); //cached copy of current RunFrame
+    RunFrame frame = frames[frameCount - 1]; //current RunFrame
+    final boolean trace = traceExecution; //loop-invariant
 
     //Bytecode dispatch loop.
     for (;;) {
@@ -139,51 +256,74 @@ public class VM {
 
        debugger.printProgress("Executing '" + compilation.name() + "'");
 
-    	frame(compilation);
-    	  
     	execCompilation = false;
 
-    	frame = fStack.peek();
+    	if (!frame(compilation))
+    	  return InterpretResult.INTERPRET_RUNTIME_ERROR;
+
+    	frame = frames[frameCount - 1];
 
     	continue;
       }
 
       byte opCode = frame.nextInstr();
 
-      debugger.traceExecution(frame, globals, vStack);
+      if (trace)
+        debugger.traceExecution(frame.compilation().instrList(), frame.ip() - 1, globals, vStack);
 
       switch (opCode) {
         case OP_ADD: {
-          if (twoStringOperands())
-            concatenate();
-          else if (twoNumericOperands())
-            binaryOp(Operation.OPERATION_PLUS);
-          else
-            return errorTwoNumbersOrStrings();
+          quickenAdd(frame, frame.ip() - 1, OP_ADD_NUM, OP_ADD_STR);
+
+          if (!add())
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
 
           break;
         } //OP_ADD
+
+        case OP_ADD_NUM: {
+          if (!twoNumericOperands()) {
+            frame.dequicken(frame.ip() - 1, OP_ADD);
+
+            break;
+          }
+
+          binaryOp(Operation.OPERATION_PLUS);
+
+          break;
+        } //OP_ADD_NUM
+
+        case OP_ADD_STR: {
+          if (!twoStringOperands()) {
+            frame.dequicken(frame.ip() - 1, OP_ADD);
+
+            break;
+          }
+
+          concatenate();
+
+          break;
+        } //OP_ADD_STR
         
         case OP_ARRAY: {
-          byte operand = frame.nextInstr(); //element count
-          List<Object> elements = new ArrayList<Object>();
-          
-          for (int i = 0; i < operand; i++)
-            elements.add(vStack.pop());
+          int operand = frame.readShort(); //element count
+          List<Object> elements = new ArrayList<>(Arrays.asList(vStack.copyTop(operand)));
+
+          vStack.drop(operand);
 
-          vStack.push(new LPCArray(elements.reversed()));
+          vStack.push(new LPCArray(elements));
 
           break;
         } //OP_ARRAY
         
         case OP_CALL: {
-          byte operand = frame.nextInstr(); //arg count
-          Object constant = vStack.get(vStack.size() - 1 - operand); //callee
+          int operand = frame.readByte(); //arg count
+          Object constant = vStack.peek(operand); //callee
 
           if (!callValue(constant, operand))
             return InterpretResult.INTERPRET_RUNTIME_ERROR;
 
-          frame = fStack.peek();
+          frame = frames[frameCount - 1];
           
           break;
         } //OP_CALL
@@ -198,15 +338,15 @@ public class VM {
         } //OP_CLOSE_UPVAL
         
         case OP_CLOSURE: {
-          byte operand = frame.nextInstr(); //constants index
+          int operand = frame.readShort(); //constants index
           Object constant = frame.getConstant(operand); //function
-          Closure closure = new Closure((C_Function)constant);
+          Closure closure = Closure.of((C_Function)constant);
 
           vStack.push(closure);
 
           for (int i = 0; i < closure.upvalues().length; i++) {
-            byte isLocal = frame.nextInstr();
-            byte index = frame.nextInstr();
+            int isLocal = frame.readByte();
+            int index = frame.readByte();
 
             if (isLocal != 0)
               closure.upvalues()[i] = captureUpvalue(frame.base() + index);
@@ -218,7 +358,7 @@ public class VM {
         } //OP_CLOSURE
         
         case OP_COMPILE: {
-          byte operand = frame.nextInstr(); //constants index
+          int operand = frame.readShort(); //constants index
           Object constant = frame.getConstant(operand); //path to source code
           C_Compilation c_Compilation = getCompilation((String)constant);
 
@@ -229,8 +369,57 @@ public class VM {
           break;
       } //OP_COMPILE
 
+        case OP_CONSTANT_ADD: {
+          int operand = frame.readShort(); //constants index
+
+          vStack.push(frame.getConstant(operand)); //right operand
+
+          quickenAdd(frame, frame.ip() - 3, OP_CONSTANT_ADD_NUM, OP_CONSTANT_ADD_STR);
+
+          if (!add())
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+
+          break;
+        } //OP_CONSTANT_ADD
+
+        case OP_CONSTANT_ADD_NUM: {
+          int operand = frame.readShort(); //constants index
+
+          vStack.push(frame.getConstant(operand)); //right operand
+
+          if (!twoNumericOperands()) {
+            vStack.drop(1);
+
+            frame.dequicken(frame.ip() - 3, OP_CONSTANT_ADD);
+
+            break;
+          }
+
+          binaryOp(Operation.OPERATION_PLUS);
+
+          break;
+        } //OP_CONSTANT_ADD_NUM
+
+        case OP_CONSTANT_ADD_STR: {
+          int operand = frame.readShort(); //constants index
+
+          vStack.push(frame.getConstant(operand)); //right operand
+
+          if (!twoStringOperands()) {
+            vStack.drop(1);
+
+            frame.dequicken(frame.ip() - 3, OP_CONSTANT_ADD);
+
+            break;
+          }
+
+          concatenate();
+
+          break;
+        } //OP_CONSTANT_ADD_STR
+
         case OP_CONSTANT: {
-          byte operand = frame.nextInstr(); //constants index
+          int operand = frame.readShort(); //constants index
           Object constant = frame.getConstant(operand); //constant
 
           vStack.push(constant);
@@ -239,13 +428,9 @@ public class VM {
         } //OP_CONSTANT
         
         case OP_DEF_GLOBAL: {
-          byte operand = frame.nextInstr(); //constants index
-          Object constant = frame.getConstant(operand); //global name
-          Object value = vStack.peek(); //global value
-
-          globals.put((String)constant, value);
+          int operand = frame.readShort(); //global slot
 
-          vStack.pop();
+          globals[operand] = vStack.pop(); //global value
 
           break;
         } //OP_DEF_GLOBAL
@@ -254,6 +439,9 @@ public class VM {
           if (!twoNumericOperands())
             return errorTwoNumbers();
 
+          if (isZero(0))
+            return error("Division by zero.");
+
           binaryOp(Operation.OPERATION_DIVIDE);
 
           break;
@@ -272,44 +460,52 @@ public class VM {
         } //OP_FALSE
         
         case OP_FIELD: {
-          byte operand = frame.nextInstr(); //constants index
-          Object constant = frame.getConstant(operand); //field name
+          int operand = frame.readShort(); //field slot
           Object value = vStack.peek(); //field value
-          LPCObject lpcObject = (LPCObject)vStack.peekN(1); //LPC object
+          LPCObject lpcObject = (LPCObject)vStack.peek(1); //LPC object
 
-          lpcObject.fields().put((String)constant, value);
+          lpcObject.setField(operand, value);
 
           vStack.pop(); //field value
 
           break;
         } //OP_FIELD
         
-        case OP_GET_GLOBAL: {
-          byte operand = frame.nextInstr(); //constants index
-          Object constant = frame.getConstant(operand); //global or nativeFn name
-          String name = (String)constant;
+        case OP_GET_THIS_FIELD:
+        case OP_GET_FIELD_SLOT: {
+          if (opCode == OP_GET_THIS_FIELD)
+            vStack.pushSlot(frame.base()); //LPC object, local slot 0
 
-          if (globals.containsKey(name)) {
-            Object value = globals.get(name);
+          int operand = frame.readShort(); //field slot
+          Object value = vStack.peek(); //LPC object
 
-            vStack.push(value);
-            
-            break;
-          }
-          
-          if (nativeFns.containsKey(name)) {
-            Object value = nativeFns.get(name);
-            
-            vStack.push(value);
-            
-            break;
+          if (!(value instanceof LPCObject)) {
+            runtimeError("Only objects have fields.");
+
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
           }
 
-          return error("Undefined object '" + name + "'.");
+          vStack.drop(1); //LPC object
+
+          vStack.push(((LPCObject)value).getField(operand));
+
+          break;
+        } //OP_GET_FIELD_SLOT
+
+        case OP_GET_GLOBAL: {
+          int operand = frame.readShort(); //global slot
+          Object value = globals[operand]; //global or nativeFn
+
+          if (value == UNDEFINED)
+            return error("Undefined object '" + C_GlobalTable.instance().name(operand) + "'.");
+
+          vStack.push(value);
+
+          break;
         } //OP_GET_GLOBAL
 
         case OP_GET_ITEM: {
-          Object value = vStack.peekN(1);
+          Object value = vStack.peek(1);
             
           if (value instanceof LPCArray)
             if (!(getArrayElement()))
@@ -329,15 +525,32 @@ public class VM {
         } //OP_GET_ITEM
 
         case OP_GET_LOCAL: {
-          byte operand = frame.nextInstr(); //offset from frame base
-          Object value = vStack.get(frame.base() + operand); //local value
+          int operand = frame.readByte(); //offset from frame base
 
-          vStack.push(value);
+          vStack.pushSlot(frame.base() + operand); //local value
 
           break;
         } //OP_GET_LOCAL
+
+        case OP_GET_LOCAL_GET_LOCAL_ADD: {
+          int op1 = frame.readByte(); //offset from frame base
+          int op2 = frame.readByte(); //offset from frame base
+
+          vStack.pushSlot(frame.base() + op1); //left operand
+          vStack.pushSlot(frame.base() + op2); //right operand
+
+          if (!add())
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+
+          break;
+        } //OP_GET_LOCAL_GET_LOCAL_ADD
         
+        case OP_GET_THIS_PROP:
         case OP_GET_PROP: {
+          if (opCode == OP_GET_THIS_PROP)
+            vStack.pushSlot(frame.base()); //LPC object, local slot 0
+
+          int site = frame.ip() - 1; //offset of this instruction
           Object value = vStack.peek(); //LPC object
 
           if (!(value instanceof LPCObject)) {
@@ -346,14 +559,36 @@ public class VM {
             return InterpretResult.INTERPRET_RUNTIME_ERROR;
           }
 
-          byte operand = frame.nextInstr(); //constants index
+          int operand = frame.readShort(); //constants index
           Object constant = frame.getConstant(operand); //field or method name
           String name = (String)constant;
           LPCObject lpcObject = (LPCObject)value;
+          InlineCache cache = frame.inlineCache(site);
+          InlineCache.Entry entry = cache.lookup(lpcObject.program());
+
+          //Objects of a program already seen at this site resolve
+          //the name the same way; skip straight to the result.
+          if (entry != null) {
+            vStack.pop(); // LPC object
+
+            if (entry.kind() == InlineCache.KIND_FIELD)
+              vStack.push(lpcObject.getField(entry.slot()));
+            else
+              vStack.push(entry.target());
+
+            if (cache.isQuickenable())
+              quickenProp(frame, site, opCode, entry);
+
+            break;
+          }
 
           //Look first for a matching field.
-          if (lpcObject.fields().containsKey(name)) {
-            Object field = lpcObject.fields().get(name);
+          int slot = lpcObject.fieldSlot(name);
+
+          if (slot != -1) {
+            Object field = lpcObject.getField(slot);
+
+            cache.addField(lpcObject.program(), slot);
 
             vStack.pop(); // LPC object
 
@@ -366,6 +601,8 @@ public class VM {
           if (lpcObject.methods().containsKey(name)) {
             Closure method = lpcObject.methods().get(name);
 
+            cache.add(lpcObject.program(), InlineCache.KIND_METHOD, method);
+
             vStack.pop(); // LPC object
 
             vStack.push(method);
@@ -376,7 +613,10 @@ public class VM {
           //Finally, check native functions
           if(nativeFns.containsKey(name)) {
             NativeFn nativeFn = nativeFns.get(name);
-            
+
+            //not cached: natives belong to this VM, while the
+            //site's cache is shared with every other VM
+
             vStack.pop();
             
             vStack.push(nativeFn);
@@ -389,16 +629,61 @@ public class VM {
           return InterpretResult.INTERPRET_RUNTIME_ERROR;
         } //OP_GET_PROP
         
+        case OP_GET_THIS_FIELD_CACHED:
+        case OP_GET_THIS_METHOD_CACHED:
+        case OP_GET_FIELD_CACHED:
+        case OP_GET_METHOD_CACHED: {
+          boolean isThis = (opCode == OP_GET_THIS_FIELD_CACHED || opCode == OP_GET_THIS_METHOD_CACHED);
+
+          if (isThis)
+            vStack.pushSlot(frame.base()); //LPC object, local slot 0
+
+          int site = frame.ip() - 1; //offset of this instruction
+          Object value = vStack.peek(); //LPC object
+          InlineCache cache = frame.inlineCache(site);
+          boolean isField = (opCode == OP_GET_FIELD_CACHED || opCode == OP_GET_THIS_FIELD_CACHED);
+
+          frame.readShort(); //constants index, for the generic form
+
+          InlineCache.Entry entry = (value instanceof LPCObject)
+            ? cache.first(((LPCObject)value).program(), isField ? InlineCache.KIND_FIELD : InlineCache.KIND_METHOD)
+            : null;
+
+          if (entry != null) {
+            vStack.pop(); // LPC object
+
+            if (isField)
+              vStack.push(((LPCObject)value).getField(entry.slot()));
+            else
+              vStack.push(entry.target());
+
+            break;
+          }
+
+          //A second program, or not an object: revert the site to
+          //its generic form for good, and run that instead.
+          if (isThis)
+            vStack.pop(); //LPC object, pushed again by OP_GET_THIS_PROP
+
+          cache.dequicken();
+
+          frame.rewrite(site, isThis ? OP_GET_THIS_PROP : OP_GET_PROP);
+
+          frame.setIP(site);
+
+          break;
+        } //OP_GET_FIELD_CACHED
+
         case OP_GET_SUPER: {
           break;
         } //OP_GET_SUPER
         
         case OP_GET_UPVAL: {
-          byte operand = frame.nextInstr(); //Upvalues slot
+          int operand = frame.readByte(); //Upvalues slot
           Upvalue upvalue = frame.closure().upvalues()[operand];
 
           if (upvalue.location() != -1) //i.e., open
-            vStack.push(vStack.get(upvalue.location()));
+            vStack.pushSlot(upvalue.location());
           else //i.e., closed
            vStack.push(upvalue.closedValue());
 
@@ -413,6 +698,15 @@ public class VM {
 
           break;
         } //OP_GREATER
+
+        case OP_GREATER_EQUAL: {
+          if (!twoNumericOperands())
+            return errorTwoNumbers();
+
+          binaryOp(Operation.OPERATION_GE);
+
+          break;
+        } //OP_GREATER_EQUAL
         
         case OP_INHERIT: {
           Object value = vStack.peek(); //inherited object
@@ -425,7 +719,7 @@ public class VM {
 
           LPCObject lpcObject = (LPCObject)value;
 
-          value = vStack.peekN(1); //inheriting object
+          value = vStack.peek(1); //inheriting object
 
           if (!(value instanceof LPCObject)) {
             runtimeError("Inheriting object must be an LPCObject.");
@@ -435,6 +729,12 @@ public class VM {
 
           LPCObject iSubObject = (LPCObject)value;
 
+          if (lpcObject.fieldCount() > iSubObject.fieldCount()) {
+            runtimeError("Inherited object's fields do not fit inheriting object.");
+
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+          }
+
           iSubObject.inherit(lpcObject); //copies down fields and methods
 
           vStack.pop(); // Inheriting object.
@@ -443,20 +743,21 @@ public class VM {
         } //OP_INHERIT
         
         case OP_INVOKE: {
-          byte op1 = frame.nextInstr(); //constants index
-          byte op2 = frame.nextInstr(); //arg count
+          int site = frame.ip() - 1; //offset of this instruction
+          int op1 = frame.readShort(); //constants index
+          int op2 = frame.readByte(); //arg count
           Object constant = frame.getConstant(op1); //method name
 
-          if (!invoke((String)constant, op2))
+          if (!invoke(frame.inlineCache(site), (String)constant, op2))
             return InterpretResult.INTERPRET_RUNTIME_ERROR;
 
-          frame = fStack.peek();
+          frame = frames[frameCount - 1];
 
           break;
         } //OP_INVOKE
         
         case OP_JUMP: {
-          byte operand = frame.nextInstr(); //offset from frame ip
+          int operand = frame.readShort(); //offset from frame ip
 
           frame.setIP(frame.ip() + operand);
 
@@ -464,14 +765,25 @@ public class VM {
         } //OP_JUMP
         
         case OP_JUMP_IF_FALSE: {
-          byte operand = frame.nextInstr(); //offset from frame ip
-          Object value = vStack.peek(); //value
+          int operand = frame.readShort(); //offset from frame ip
 
-          if (isFalsey(value))
+          if (isFalsey(0)) //value
             frame.setIP(frame.ip() + operand);
 
           break;
         } //OP_JUMP_IF_FALSE
+
+        case OP_JUMP_IF_FALSE_POP: {
+          int operand = frame.readShort(); //offset from frame ip
+
+          //the value stays stacked on the jump, for the target's OP_POP
+          if (isFalsey(0)) //value
+            frame.setIP(frame.ip() + operand);
+          else
+            vStack.drop(1); //value
+
+          break;
+        } //OP_JUMP_IF_FALSE_POP
         
         case OP_LESS: {
           if (!twoNumericOperands())
@@ -481,9 +793,25 @@ public class VM {
 
           break;
         } //OP_LESS
+
+        case OP_LESS_EQUAL: {
+          if (!twoNumericOperands())
+            return errorTwoNumbers();
+
+          binaryOp(Operation.OPERATION_LE);
+
+          break;
+        } //OP_LESS_EQUAL
         
         case OP_LOOP: {
-          byte operand = frame.nextInstr(); //offset from frame ip
+          int operand = frame.readShort(); //offset from frame ip
+
+          //checked before jumping, so that errors report this line
+          if (--evalLeft < 0 && !evalCheckpoint())
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+
+          if (frame.function() != null)
+            frame.function().warm();
 
           frame.setIP(frame.ip() - operand);
 
@@ -491,7 +819,7 @@ public class VM {
         } //OP_LOOP
         
         case OP_MAPPING: {
-            byte operand = frame.nextInstr(); //entry count
+            int operand = frame.readShort(); //entry count
             Map<Object, Object> map = new HashMap<Object, Object>();
             
             for (int i = 0; i < operand; i++) {
@@ -507,10 +835,10 @@ public class VM {
           } //OP_MAPPING
 
         case OP_METHOD: {
-          byte operand = frame.nextInstr(); //constants index
+          int operand = frame.readShort(); //constants index
           Object constant = frame.getConstant(operand); //method name
           Closure closure = (Closure)vStack.peek(); //closure
-          LPCObject lpcObject = (LPCObject)vStack.peekN(1); //LPC object
+          LPCObject lpcObject = (LPCObject)vStack.peek(1); //LPC object
 
           lpcObject.methods().put((String)constant, closure);
 
@@ -532,9 +860,10 @@ public class VM {
           if (!oneNumericOperand())
             return errorOneNumber();
 
-          Object value = vStack.pop();
-
-          vStack.push(-(double)value);
+          if (vStack.isInt(0))
+            vStack.pushInt(-vStack.popInt());
+          else
+            vStack.pushFloat(-vStack.popFloat());
 
           break;
         } //OP_NEGATE
@@ -546,17 +875,32 @@ public class VM {
         } //OP_NIL
         
         case OP_NOT: {
-          Object value = vStack.pop(); //value
+          boolean falsey = isFalsey(0); //value
 
-          vStack.push(isFalsey(value));
+          vStack.drop(1);
+
+          vStack.push(falsey);
 
           break;
         } //OP_NOT
+
+        case OP_NOT_EQUAL: {
+          equate();
+
+          boolean falsey = isFalsey(0); //equality
+
+          vStack.drop(1);
+
+          vStack.push(falsey);
+
+          break;
+        } //OP_NOT_EQUAL
         
         case OP_OBJECT: {
-          byte operand = frame.nextInstr(); //constants index
+          int operand = frame.readShort(); //constants index
           Object constant = frame.getConstant(operand); //LPC object name
-          LPCObject lpcObject = new LPCObject((String)constant);
+          C_ObjectCompilation program = (C_ObjectCompilation)frame.compilation();
+          LPCObject lpcObject = new LPCObject((String)constant, program);
 
           vStack.push(lpcObject);
 
@@ -564,60 +908,98 @@ public class VM {
         } //OP_OBJECT
         
         case OP_POP: {
-          vStack.pop();
+          vStack.drop(1);
           
           break;
         } //OP_POP
         
         case OP_RETURN: {
           //We're about to discard the called function's entire
-          //stack window, so pop the function's return value but
-          //hold onto a reference to it.
-          Object value = vStack.pop(); //function return value
-
+          //stack window; the return value on top of the vStack
+          //moves down to the window's base once upvalues close.
           closeUpvalues(frame.base());
 
+          //An object's program is complete once its compilation
+          //returns; from then on call sites may cache against it.
+          if (frame.compilation().type() == TYPE_OBJECT) {
+            Object value = vStack.peek(); //constructed LPC object
+
+            if (value instanceof LPCObject)
+              ((LPCObject)value).markConstructed();
+          }
+
           //pop the RunFrame for the returning function
-          fStack.pop();
+          frameCount--;
 
-          if (fStack.isEmpty()) { //entire program finished
-            vStack.pop();
+          if (frameCount == 0) { //entire program finished
+            vStack.drop(2); //return value, script
 
             //exit the bytecode dispatch loop
             return InterpretResult.INTERPRET_OK;
           }
 
-          //pop the vStack back to expiring RunFrame's base
-          while (vStack.size() > frame.base())
-            vStack.pop();
+          //pop the vStack back to expiring RunFrame's base,
+          //leaving the function's return value in its place
+          vStack.unwind(frame.base());
 
-          //replace the function's return value on vStack
-          vStack.push(value);
+          if (frameCount == exitDepth) //back to compiled code
+            return InterpretResult.INTERPRET_OK;
 
-          frame = fStack.peek();
+          frame = frames[frameCount - 1];
 
           break;
         } //OP_RETURN
         
+        case OP_SET_FIELD_SLOT: {
+          int operand = frame.readShort(); //field slot
+          Object value = vStack.peek(1); //LPC object
+
+          if (!(value instanceof LPCObject)) {
+            runtimeError("Only objects have fields.");
+
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+          }
+
+          value = vStack.pop(); //new field value
+
+          ((LPCObject)vStack.peek()).setField(operand, value);
+
+          vStack.drop(1); //LPC object
+
+          //Assignment is an expression; leave the new value stacked.
+          vStack.push(value);
+
+          break;
+        } //OP_SET_FIELD_SLOT
+
         case OP_SET_GLOBAL: {
-          byte operand = frame.nextInstr(); //constants index
-          Object constant = frame.getConstant(operand); //global name
-          String name = (String)constant;
-          Object value = vStack.peek(); //global value
+          int operand = frame.readShort(); //global slot
 
-          if (!globals.containsKey(name))
-            return error("Undefined object '" + name + "'.");
+          if (globals[operand] == UNDEFINED)
+            return error("Undefined object '" + C_GlobalTable.instance().name(operand) + "'.");
 
           //Peek here, not pop; assignment is an expression,
           //so we leave value vStacked in case the assignment
           //is nested inside a larger expression.
-          globals.put(name, value);
+          globals[operand] = vStack.peek(); //global value
 
           break;
         } //OP_SET_GLOBAL
+
+        case OP_SET_GLOBAL_POP: {
+          int operand = frame.readShort(); //global slot
+
+          if (globals[operand] == UNDEFINED)
+            return error("Undefined object '" + C_GlobalTable.instance().name(operand) + "'.");
+
+          //assignment as a statement; nothing to leave stacked
+          globals[operand] = vStack.pop(); //global value
+
+          break;
+        } //OP_SET_GLOBAL_POP
         
         case OP_SET_ITEM: {
-          Object value = vStack.peekN(2);
+          Object value = vStack.peek(2);
           
           if (value instanceof LPCArray)
             if (!(setArrayElement()))
@@ -637,16 +1019,26 @@ public class VM {
         } //OP_SET_ITEM
 
         case OP_SET_LOCAL: {
-          byte operand = frame.nextInstr(); //offset from frame base
-          Object value = vStack.peek(); //local value
+          int operand = frame.readByte(); //offset from frame base
 
-          vStack.set(frame.base() + operand, value);
+          vStack.setSlot(frame.base() + operand); //local value
 
           break;
         } //OP_SET_LOCAL
+
+        case OP_SET_LOCAL_POP: {
+          int operand = frame.readByte(); //offset from frame base
+
+          vStack.setSlot(frame.base() + operand); //local value
+
+          vStack.drop(1);
+
+          break;
+        } //OP_SET_LOCAL_POP
         
         case OP_SET_PROP: {
-          Object value = vStack.peekN(1); //LPC object
+          int site = frame.ip() - 1; //offset of this instruction
+          Object value = vStack.peek(1); //LPC object
 
           if (!(value instanceof LPCObject)) {
             runtimeError("Only LPC Objects have fields.");
@@ -654,20 +1046,32 @@ public class VM {
             return InterpretResult.INTERPRET_RUNTIME_ERROR;
           }
 
-          byte operand = frame.nextInstr(); //constants index
+          int operand = frame.readShort(); //constants index
           Object constant = frame.getConstant(operand); //field name
           String name = (String)constant;
           LPCObject lpcObject = (LPCObject)value;
+          InlineCache cache = frame.inlineCache(site);
+          InlineCache.Entry entry = cache.lookup(lpcObject.program());
+          int slot;
 
-          //Look for a matching field.
-          if (!lpcObject.fields().containsKey(name)) {
-            runtimeError("Undefined field '" + name + "'.");
+          //Look for a matching field, unless this site has already
+          //found one on an object of the same program.
+          if (entry != null)
+            slot = entry.slot();
+          else {
+            slot = lpcObject.fieldSlot(name);
 
-            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+            if (slot == -1) {
+              runtimeError("Undefined field '" + name + "'.");
+
+              return InterpretResult.INTERPRET_RUNTIME_ERROR;
+            }
+
+            cache.addField(lpcObject.program(), slot);
           }
 
           //Set the existing field to its new value.
-          lpcObject.fields().put(name, vStack.peek());
+          lpcObject.setField(slot, vStack.peek());
 
           value = vStack.pop(); //new field value
 
@@ -682,14 +1086,13 @@ public class VM {
         } //OP_SET_PROP
         
         case OP_SET_UPVAL: {
-          byte operand = frame.nextInstr(); //Upvalues index
+          int operand = frame.readByte(); //Upvalues index
           Upvalue upvalue = frame.closure().upvalues()[operand];
-          Object value = vStack.peek();
 
           if (upvalue.location() != -1) //i.e., open
-            vStack.set(upvalue.location(), value);
+            vStack.setSlot(upvalue.location());
           else //i.e., closed
-            upvalue.setClosedValue(value);
+            upvalue.setClosedValue(vStack.peek());
 
           break;
         } //OP_SET_UPVAL
@@ -704,90 +1107,295 @@ public class VM {
         } //OP_SUBTRACT
         
         case OP_SUPER_INVOKE: {
-          byte op1 = frame.nextInstr(); //constants index
-          byte op2 = frame.nextInstr(); //arg count
+          int op1 = frame.readShort(); //constants index
+          int op2 = frame.readByte(); //arg count
           Object constant = frame.getConstant(op1); //inherited method name
-          LPCObject lpcObject = (LPCObject)vStack.popMinus(op2); //inheriting LPC object
+          LPCObject lpcObject = (LPCObject)vStack.peek(op2); //inheriting LPC object
 
           if (!invokeFromObject(lpcObject.superObj(), (String)constant, op2))
             return InterpretResult.INTERPRET_RUNTIME_ERROR;
 
-          frame = fStack.peek();
+          frame = frames[frameCount - 1];
 
           break;
         } //OP_SUPER_INVOKE
         
+        case OP_TAIL_CALL: {
+          int operand = frame.readByte(); //arg count
+          Object callee = vStack.peek(operand);
+
+          //natives have no frame to replace; the OP_RETURN
+          //that follows returns their result
+          if (!(callee instanceof Closure)) {
+            if (!callValue(callee, operand))
+              return InterpretResult.INTERPRET_RUNTIME_ERROR;
+
+            break;
+          }
+
+          if (!tailCall(frame, (Closure)callee, operand))
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+
+          break;
+        } //OP_TAIL_CALL
+
+        case OP_TAIL_INVOKE: {
+          int site = frame.ip() - 1; //offset of this instruction
+          int op1 = frame.readShort(); //constants index
+          int op2 = frame.readByte(); //arg count
+          Object constant = frame.getConstant(op1); //method name
+          Closure method = method(frame.inlineCache(site), (String)constant, op2);
+
+          if (method == null || !tailCall(frame, method, op2))
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+
+          break;
+        } //OP_TAIL_INVOKE
+
         case OP_TRUE: {
           vStack.push(true);
           
           break;
         } //OP_TRUE
-        
-        default: {
-          break;
-        } //default
-      } //switch
-    } //for(;;)
-  } //run()
 
-  //reset()
-  private void reset() {
-    vStack = new ObjStack();
-    fStack = new Stack<>();
-    openUpvalues = null;
-    execCompilation = false;
-  }
-  
-  //write(String)
-  public void write(String str) {
-//    user.write(str);
-  }
-  
-  //writeLn(String)
-  public void writeLn(String str) {
-	write(str + "\n");
-  }
+        //register forms; int operands are worked in place, and
+        //anything else as the stack code each stands for
 
-  //runtimeError(String, String...)
-  void runtimeError(String message, String... args) {
-//    user.write("Runtime Error: " + message);
+        case OP_MOVE: {
+          int dest = frame.base() + frame.readByte(); //register
+          int src = frame.base() + frame.readByte(); //register
 
-    for (String s : args)
-//      user.write(s);
+          vStack.copySlot(src, dest);
 
-    //loop through RunFrames on fStack in reverse order
-    for (int i = fStack.size() - 1; i >=0; i--) {
-      RunFrame frame = fStack.get(i);
-      C_Compilation compilation = frame.closure().compilation();
-      C_InstrList instrList = compilation.instrList();
-      int line = instrList.lines().get(instrList.lines().size() - 2);
+          break;
+        } //OP_MOVE
 
-//      user.write("[line " + line + "] in ");
+        case OP_LOADK: {
+          int dest = frame.base() + frame.readByte(); //register
+          int operand = frame.readShort(); //constants index
 
-      if (compilation.type() == TYPE_SCRIPT) {}
-//        user.writeLn("script.");
-      else {}
-//        user.writeLn(compilation.name() + "().");
-    }
+          vStack.set(dest, frame.getConstant(operand));
 
-    reset(); // vStack, fStack, openUpvalues
-  }
+          break;
+        } //OP_LOADK
 
-  //defineNativeFn(String, NativeFn)
-  private void defineNativeFn(String name, NativeFn nativeFn) {
-    nativeFns.put(name, nativeFn);
-  }
+        case OP_ADD_RR:
+        case OP_SUBTRACT_RR:
+        case OP_MULTIPLY_RR:
+        case OP_DIVIDE_RR: {
+          int dest = frame.base() + frame.readByte(); //register
+          int left = frame.base() + frame.readByte(); //register
+          int right = frame.base() + frame.readByte(); //register
 
-  public C_Compilation getCompilation(String path) {
-    String fullPath = getLibPath() + path;
-    SourceFile file  = new SourceFile(fullPath);
-    C_ObjectCompiler compiler = new C_ObjectCompiler(debugger);
+          if (opCode != OP_DIVIDE_RR && vStack.isIntAt(left) && vStack.isIntAt(right)) {
+            long a = vStack.intAt(left);
+            long b = vStack.intAt(right);
 
-    return compiler.compile(
-      Paths.get(file.path()),
-      file.prefix(),
-      file.source()
-    );
+            vStack.setIntAt(dest, (opCode == OP_ADD_RR) ? a + b : (opCode == OP_SUBTRACT_RR) ? a - b : a * b);
+
+            break;
+          }
+
+          vStack.pushSlot(left);
+          vStack.pushSlot(right);
+
+          if (!registerArithmetic(opCode))
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+
+          vStack.setSlot(dest);
+
+          vStack.drop(1);
+
+          break;
+        } //OP_ADD_RR
+
+        case OP_ADD_RK:
+        case OP_SUBTRACT_RK: {
+          int dest = frame.base() + frame.readByte(); //register
+          int left = frame.base() + frame.readByte(); //register
+          int operand = frame.readShort(); //constants index
+          Object constant = frame.getConstant(operand); //right operand
+
+          if (vStack.isIntAt(left) && constant instanceof Long) {
+            long a = vStack.intAt(left);
+            long b = (Long)constant;
+
+            vStack.setIntAt(dest, (opCode == OP_ADD_RK) ? a + b : a - b);
+
+            break;
+          }
+
+          vStack.pushSlot(left);
+          vStack.push(constant);
+
+          if (!registerArithmetic(opCode))
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+
+          vStack.setSlot(dest);
+
+          vStack.drop(1);
+
+          break;
+        } //OP_ADD_RK
+
+        case OP_JUMP_IF_NOT_LESS_RR:
+        case OP_JUMP_IF_NOT_LESS_RK: {
+          int left = frame.base() + frame.readByte(); //register
+          int right = -1; //register, if any
+          Object constant = null; //right operand, if no register
+
+          if (opCode == OP_JUMP_IF_NOT_LESS_RR)
+            right = frame.base() + frame.readByte();
+          else
+            constant = frame.getConstant(frame.readShort());
+
+          int operand = frame.readShort(); //offset from frame ip
+
+          if (vStack.isIntAt(left) && ((right != -1) ? vStack.isIntAt(right) : constant instanceof Long)) {
+            long b = (right != -1) ? vStack.intAt(right) : (Long)constant;
+
+            if (!(vStack.intAt(left) < b))
+              frame.setIP(frame.ip() + operand);
+
+            break;
+          }
+
+          vStack.pushSlot(left);
+
+          if (right != -1)
+            vStack.pushSlot(right);
+          else
+            vStack.push(constant);
+
+          if (!twoNumericOperands())
+            return errorTwoNumbers();
+
+          binaryOp(Operation.OPERATION_LT);
+
+          if (isFalsey(0))
+            frame.setIP(frame.ip() + operand);
+
+          vStack.drop(1); //nothing stays stacked on the jump
+
+          break;
+        } //OP_JUMP_IF_NOT_LESS_RR
+        
+        default: {
+          break;
+        } //default
+      } //switch
+    } //for(;;)
+  } //run()
+
+  //reset()
+  private void reset() {
+    vStack = new ObjStack();
+
+    for (int i = 0; i < frameCount; i++)
+      frames[i].release();
+
+    frameCount = 0;
+    jitDepth = 0;
+    exitDepth = 0;
+    execCompilation = false;
+
+    Arrays.fill(openUpvalues, 0, openTop, null);
+
+    openTop = 0;
+  }
+  
+  //write(String)
+  public void write(String str) {
+    user.write(str);
+  }
+  
+  //writeLn(String)
+  public void writeLn(String str) {
+	write(str + "\n");
+  }
+
+  //runtimeError(String, String...)
+  void runtimeError(String message, String... args) {
+    user.write("Runtime Error: " + message);
+
+    for (String s : args)
+      user.write(s);
+
+    //compiled calls have no RunFrame; they are listed from the
+    //JVM's stack, each above the RunFrame it was called from
+    List<StackFrame> jitFrames = (jitDepth > 0) ? JitCode.frames() : List.of();
+    int jit = jitDepth - 1;
+
+    //loop through active RunFrames in reverse order
+    for (int i = frameCount - 1; i >=0; i--) {
+      for (; jit >= 0 && jitBases[jit] > i; jit--) {
+        //a body whose jitEnter() failed is innermost, not counted
+        StackFrame jitFrame = jitFrames.get(jitFrames.size() - 1 - jit);
+
+        user.write("\n[line " + jitFrame.getLineNumber() + "] in ");
+        user.writeLn(jitFrame.getFileName() + "().");
+      }
+
+      RunFrame frame = frames[i];
+      C_Compilation compilation = frame.compilation();
+      C_InstrList instrList = compilation.instrList();
+      int line = instrList.lineAt(frame.ip() - 1);
+
+      user.write("\n[line " + line + "] in ");
+
+      if (compilation.type() == TYPE_SCRIPT)
+        user.writeLn("script.");
+      else
+        user.writeLn(compilation.name() + "().");
+    }
+
+    reset(); // vStack, frames, openUpvalues
+  }
+
+  //defineNativeFn(String, NativeFn)
+  //Natives are bound once, into the global slot for their name.
+  private void defineNativeFn(String name, NativeFn nativeFn) {
+    int slot = C_GlobalTable.instance().slot(name);
+
+    ensureGlobals(slot + 1);
+
+    globals[slot] = nativeFn;
+
+    nativeFns.put(name, nativeFn);
+  }
+
+  public C_Compilation getCompilation(String path) {
+    String fullPath = getLibPath() + path;
+    SourceFile file  = new SourceFile(fullPath);
+    C_ObjectCompiler compiler = new C_ObjectCompiler(debugger, getLibPath());
+
+    compiler.setRegisterCode(registerCode);
+    compiler.setOptimize(optimize);
+
+    return compiler.compile(file);
+  }
+
+  //precompile()
+  //Compile every object under the lib path, in parallel, ahead of
+  //running anything.  Returns the paths that failed to compile.
+  public List<Path> precompile() throws IOException {
+    C_Precompiler precompiler = new C_Precompiler(debugger, getLibPath());
+
+    precompiler.setRegisterCode(registerCode);
+
+    return precompiler.precompile();
+  }
+
+  //ensureGlobals(int)
+  private void ensureGlobals(int size) {
+    if (globals.length >= size)
+      return;
+
+    int oldLength = globals.length;
+
+    globals = Arrays.copyOf(globals, size);
+
+    Arrays.fill(globals, oldLength, size, UNDEFINED);
   }
 
   //callValue(Object, int)
@@ -805,22 +1413,353 @@ public class VM {
   }
 
   //frame(Closure, int)
+  //Once the function is hot and compiled, run its JitCode here and
+  //now, rather than framing it for run().
   private boolean frame(Closure closure, int argCount) {
-    if (!checkArity((C_Function)closure.compilation(), argCount))
+    for (;;) {
+      C_Function function = (C_Function)closure.compilation();
+
+      if (!checkArity(function, argCount))
+        return false;
+
+      if (--evalLeft < 0 && !evalCheckpoint())
+        return false;
+
+      JitCode code = (jitThreshold > 0 && !traceExecution) ? jitCode(function, argCount) : null;
+
+      if (code == null)
+        break;
+
+      int base = vStack.size() - 1 - argCount;
+      Object result;
+
+      try {
+        result = code.invoke(this, vStack, base);
+      } catch (JitAbort e) {
+        return false; //already reported
+      } catch (StackOverflowError e) {
+        runtimeError("Too deep recursion.");
+
+        return false;
+      }
+
+      if (result == JitCode.DEOPT) {
+        deopt(function, code);
+
+        break;
+      }
+
+      if (result != JitCode.TAIL_CALL) {
+        vStack.drop(vStack.size() - base); //callee, args
+
+        vStack.push(result);
+
+        return true;
+      }
+
+      //the code ended in a call it left to us; its callee and
+      //args replace this call's
+      argCount = pendingArgs;
+
+      vStack.slide(base, argCount + 1);
+
+      Object callee = vStack.peek(argCount);
+
+      if (!(callee instanceof Closure))
+        return callValue(callee, argCount);
+
+      closure = (Closure)callee;
+    }
+
+    RunFrame frame = nextFrame();
+
+    if (frame == null)
       return false;
 
-    int base = vStack.size() - 1 - argCount;
+    frame.bind(closure, vStack.size() - 1 - argCount);
+
+    return true;
+  }
+
+  //jitCode(C_Function, int)
+  //The function's JitCode, compiling it for the args stacked now
+  //if it has just got hot; null if it is to be interpreted.
+  private JitCode jitCode(C_Function function, int argCount) {
+    Object code = function.tier2();
+
+    if (code instanceof JitCode)
+      return (JitCode)code;
+
+    if (code != null || function.warm() < jitThreshold)
+      return null;
+
+    code = JitCompiler.compile(function, vStack, vStack.size() - 1 - argCount);
+
+    function.setTier2(code);
+
+    return (code instanceof JitCode) ? (JitCode)code : null;
+  }
+
+  //deopt(C_Function, JitCode)
+  //code declined a call; past MAX_DEOPTS, replace it with code for
+  //args of any type.
+  private void deopt(C_Function function, JitCode code) {
+    if (++code.deopts == MAX_DEOPTS && !code.generic)
+      function.setTier2(JitCompiler.compile(function, null, 0));
+  }
+
+  //runNested(int)
+  //Run the frames above depth, on behalf of compiled code.
+  private InterpretResult runNested(int depth) {
+    int saved = exitDepth;
+
+    exitDepth = depth;
+
+    try {
+      return run();
+    } finally {
+      exitDepth = saved;
+    }
+  }
+
+  //jitEnter()
+  //Called on entry to a compiled function's body; compiled calls
+  //count against the maximum call depth along with RunFrames.
+  void jitEnter() {
+    if (frameCount + jitDepth >= frames.length)
+      throw jitError("Too deep recursion.");
+
+    jitBases[jitDepth++] = frameCount;
+  }
+
+  //jitExit()
+  void jitExit() {
+    jitDepth--;
+  }
+
+  //jitCharge()
+  //Charge compiled code for a call or backward jump.
+  void jitCharge() {
+    if (--evalLeft < 0 && !evalCheckpoint())
+      throw JitAbort.ABORT;
+  }
+
+  //jitError(String)
+  //Report message as a runtime error, returning the exception for
+  //compiled code to throw.
+  RuntimeException jitError(String message) {
+    runtimeError(message);
+
+    return JitAbort.ABORT;
+  }
+
+  //jitGetGlobal(int)
+  Object jitGetGlobal(int slot) {
+    Object value = globals[slot];
+
+    if (value == UNDEFINED)
+      throw jitError("Undefined object '" + C_GlobalTable.instance().name(slot) + "'.");
+
+    return value;
+  }
+
+  //jitSetGlobal(int, Object)
+  void jitSetGlobal(int slot, Object value) {
+    if (globals[slot] == UNDEFINED)
+      throw jitError("Undefined object '" + C_GlobalTable.instance().name(slot) + "'.");
 
-    fStack.push(new RunFrame(closure, base));
+    globals[slot] = value;
+  }
+
+  //jitPush(Object)
+  void jitPush(Object value) {
+    vStack.push(value);
+  }
+
+  //jitPushInt(long)
+  void jitPushInt(long value) {
+    vStack.pushInt(value);
+  }
+
+  //jitPushFloat(double)
+  void jitPushFloat(double value) {
+    vStack.pushFloat(value);
+  }
+
+  //jitCall(int)
+  //Call the callee stacked below argCount args, for compiled code,
+  //and return its result.
+  Object jitCall(int argCount) {
+    int depth = frameCount;
+
+    if (!callValue(vStack.peek(argCount), argCount))
+      throw JitAbort.ABORT;
+
+    return jitResult(depth);
+  }
+
+  //jitCallPending()
+  //Make the tail call a compiled callee handed back.
+  Object jitCallPending() {
+    return jitCall(pendingArgs);
+  }
+
+  //jitTailCall(int)
+  //Hand the call stacked below argCount args back to the caller to
+  //make, ending the calling compiled function.
+  Object jitTailCall(int argCount) {
+    pendingArgs = argCount;
+
+    jitDepth--;
+
+    return JitCode.TAIL_CALL;
+  }
+
+  //jitInvoke(Object[], int, String, int)
+  //As OP_INVOKE at site, for compiled code.
+  Object jitInvoke(Object[] caches, int site, String methodName, int argCount) {
+    int depth = frameCount;
+
+    if (!invoke(RunFrame.inlineCache(caches, site), methodName, argCount))
+      throw JitAbort.ABORT;
+
+    return jitResult(depth);
+  }
+
+  //jitResult(int)
+  //Finish a call made for compiled code at depth: run whatever it
+  //framed, then pop its result.
+  private Object jitResult(int depth) {
+    if ((frameCount > depth || execCompilation) && runNested(depth) != InterpretResult.INTERPRET_OK)
+      throw JitAbort.ABORT;
+
+    return vStack.pop();
+  }
+
+  //tailCall(RunFrame, Closure, int)
+  //Call closure in place of the function running in frame: its
+  //callee and arguments slide down over frame's stack window, and
+  //frame is rebound to it.  The call depth does not grow.
+  private boolean tailCall(RunFrame frame, Closure closure, int argCount) {
+    C_Function function = (C_Function)closure.compilation();
+
+    if (!checkArity(function, argCount))
+      return false;
+
+    function.warm(); //compiled when next called
+
+    if (--evalLeft < 0 && !evalCheckpoint())
+      return false;
+
+    //nothing may keep pointing into the window being reused
+    closeUpvalues(frame.base());
+
+    vStack.slide(frame.base(), argCount + 1); //callee, args
+
+    frame.bind(closure, frame.base());
 
     return true;
   }
 
   //frame(C_Compilation)
-  private void frame(C_Compilation compilation) {
-	  int base = vStack.size() - 1;
+  private boolean frame(C_Compilation compilation) {
+    RunFrame frame = nextFrame();
+
+    if (frame == null)
+      return false;
+
+    frame.bind(compilation, vStack.size() - 1);
+
+    return true;
+  }
+
+  //beginEval()
+  //Start a fresh eval cost budget, and deadline, for a top-level
+  //entry.
+  private void beginEval() {
+    evalCost = 0;
+    evalDeadline = (maxEvalTime > 0) ? System.nanoTime() + maxEvalTime * 1_000_000L : 0;
+
+    grantEval();
+  }
+
+  //grantEval()
+  //Grant the cost units to run until the next checkpoint: at most
+  //EVAL_CHECK_INTERVAL, and no more than the budget has left.
+  private void grantEval() {
+    long left = (maxEvalCost > 0) ? maxEvalCost - evalCost : EVAL_CHECK_INTERVAL;
+
+    evalChunk = (int)Math.min(EVAL_CHECK_INTERVAL, left);
+    evalLeft = evalChunk;
+  }
+
+  //evalCheckpoint()
+  //Reached when the granted cost units run out.  Charge them, then
+  //either grant more or report a runtime error and return false.
+  private boolean evalCheckpoint() {
+    evalCost += evalChunk - evalLeft;
+
+    if (maxEvalCost > 0 && evalCost > maxEvalCost) {
+      runtimeError("Too long evaluation.");
+
+      return false;
+    }
+
+    if (evalDeadline != 0 && System.nanoTime() - evalDeadline > 0) {
+      runtimeError("Too long evaluation (time limit).");
+
+      return false;
+    }
+
+    grantEval();
+
+    return true;
+  }
 
-	  fStack.push(new RunFrame(compilation, base));
+  //evalCost()
+  //Eval cost consumed so far by the current top-level entry.
+  public long evalCost() {
+    return evalCost + evalChunk - evalLeft;
+  }
+
+  //maxEvalCost()
+  public long maxEvalCost() {
+    return maxEvalCost;
+  }
+
+  //setMaxEvalCost(long)
+  //0 for no limit.  Takes effect from the next interpret().
+  public void setMaxEvalCost(long maxEvalCost) {
+    this.maxEvalCost = maxEvalCost;
+  }
+
+  //setMaxEvalTime(long)
+  //In ms; 0 for no limit.  Takes effect from the next interpret().
+  public void setMaxEvalTime(long maxEvalTime) {
+    this.maxEvalTime = maxEvalTime;
+  }
+
+  //nextFrame()
+  //Claim the pooled RunFrame for the next call depth, or report a
+  //runtime error and return null if the maximum depth is reached.
+  private RunFrame nextFrame() {
+    if (frameCount + jitDepth >= frames.length) {
+      runtimeError("Too deep recursion.");
+
+      return null;
+    }
+
+    RunFrame frame = frames[frameCount];
+
+    if (frame == null) { //first call at this depth
+      frame = new RunFrame();
+
+      frames[frameCount] = frame;
+    }
+
+    frameCount++;
+
+    return frame;
   }
 
   //call(NativeFn, int)
@@ -828,12 +1767,14 @@ public class VM {
     if (!checkArity(nativeFn, argCount))
       return false;
 
-    List<Object> args = vStack.subList(vStack.size() - argCount, vStack.size());
-    Object result = nativeFn.execute(args.toArray());
+    if (--evalLeft < 0 && !evalCheckpoint())
+      return false;
+
+    Object[] args = vStack.copyTop(argCount);
+    Object result = nativeFn.execute(args);
 
     //pop args plus native function
-    for (int i = 0; i < argCount + 1; i++)
-      vStack.pop();
+    vStack.drop(argCount + 1);
 
     vStack.push(result); //return value
 
@@ -856,74 +1797,105 @@ public class VM {
     return frame(closure, argCount);
   }
 
-  //invoke(String, int)
+  //invoke(InlineCache, String, int)
   //Invoking means checking that the second-from-top vStack value
-  //is an LPCObject, then sending the object, method name, and arg count
-  //to invokeFromObject.
-  private boolean invoke(String methodName, int argCount) {
-    Object value = vStack.get(vStack.size() - 1 - argCount);
+  //is an LPCObject, then framing the object's method with the given
+  //name and arg count.  The call site's cache is consulted first and
+  //filled on a miss.
+  private boolean invoke(InlineCache cache, String methodName, int argCount) {
+    Closure closure = method(cache, methodName, argCount);
+
+    return closure != null && frame(closure, argCount);
+  }
+
+  //method(InlineCache, String, int)
+  //Resolve the named method on the LPCObject below the args, or
+  //report a runtime error and return null.
+  private Closure method(InlineCache cache, String methodName, int argCount) {
+    Object value = vStack.peek(argCount);
 
     if (!(value instanceof LPCObject)) {
       runtimeError("Only LPC Objects have methods.");
 
-      return false;
+      return null;
     }
 
     LPCObject lpcObject = (LPCObject)value;
+    InlineCache.Entry entry = cache.lookup(lpcObject.program());
 
-    return invokeFromObject(lpcObject, methodName, argCount);
-  }
+    if (entry != null)
+      return (Closure)entry.target();
 
-  //captureUpvalue(int)
-  Upvalue captureUpvalue(int location) {
-    Upvalue prevUpvalue = null;
-    Upvalue currUpvalue = openUpvalues; //start at head of list
+    Closure closure = lpcObject.methods().get(methodName);
 
-    while (currUpvalue != null && currUpvalue.location() > location) {
-      prevUpvalue = currUpvalue;
+    if (closure == null) {
+      runtimeError("Undefined method '" + methodName + "'.");
 
-      currUpvalue = currUpvalue.next();
+      return null;
     }
 
-    if (currUpvalue != null && currUpvalue.location() == location)
-      return currUpvalue;
+    cache.add(lpcObject.program(), InlineCache.KIND_METHOD, closure);
+
+    return closure;
+  }
+
+  //captureUpvalue(int)
+  //Return the open upvalue for the vStack slot at location, creating
+  //it if the slot is not yet captured.
+  Upvalue captureUpvalue(int location) {
+    if (location >= openUpvalues.length)
+      openUpvalues = Arrays.copyOf(openUpvalues, Math.max(location + 1, openUpvalues.length * 2));
+
+    Upvalue upvalue = openUpvalues[location];
 
-    //create new Upvalue and insert into linked list of
-    //open upvalues between previous and current
-    Upvalue createdUpvalue = new Upvalue(location);
+    if (upvalue == null) {
+      upvalue = new Upvalue(location);
 
-    createdUpvalue.setNext(currUpvalue);
+      openUpvalues[location] = upvalue;
 
-    if (prevUpvalue == null)
-      openUpvalues = createdUpvalue; //new head of list
-    else
-      prevUpvalue.setNext(createdUpvalue); //insert into list
+      if (location >= openTop)
+        openTop = location + 1;
+    }
 
-    return createdUpvalue;
+    return upvalue;
   }
 
   //closeUpvalues(int)
+  //Close every open upvalue at or above the vStack slot last.  A
+  //frame that captured nothing sits wholly above openTop, so its
+  //return costs just the one comparison.
   void closeUpvalues(int last) {
-    while (openUpvalues != null && openUpvalues.location() >= last) {
-      Upvalue upvalue = openUpvalues;
+    if (last >= openTop)
+      return;
 
-      upvalue.setClosedValue(vStack.get(upvalue.location()));
+    for (int i = last; i < openTop; i++) {
+      Upvalue upvalue = openUpvalues[i];
+
+      if (upvalue == null)
+        continue;
+
+      upvalue.setClosedValue(vStack.get(i));
       upvalue.setLocation(-1);
 
-      //after upvalue is closed, reset head of linked list
-      //to next upvalue
-      openUpvalues = upvalue.next();
-      upvalue.setNext(null);
+      openUpvalues[i] = null;
     }
+
+    openTop = last;
   }
 
   //getArrayElement()
   private boolean getArrayElement() {
-	Object val1 = vStack.pop(); //index
+    if (!vStack.isInt(0)) {
+      runtimeError("Invalid array element index: " + vStack.peek());
+
+      return false;
+    }
+
+	long val1 = vStack.popInt(); //index
 	Object val2 = vStack.pop(); //array
 	
     LPCArray array = (LPCArray)val2;
-    int index = checkArrayIndex(array, (Double)val1);
+    int index = checkArrayIndex(array, val1);
 
     if (index == -1) return false;
 
@@ -934,12 +1906,18 @@ public class VM {
   
   //setArrayElement()
   private boolean setArrayElement() {
+    if (!vStack.isInt(1)) {
+      runtimeError("Invalid array element index: " + vStack.peek(1));
+
+      return false;
+    }
+
 	Object val1 = vStack.pop(); //element value
-	Object val2 = vStack.pop(); //index
+	long val2 = vStack.popInt(); //index
 	Object val3 = vStack.peek(); //array; leave stacked
 
     LPCArray array = (LPCArray)val3;
-    int index = checkArrayIndex(array, (Double)val2);
+    int index = checkArrayIndex(array, val2);
 
     if (index == -1) return false;
 
@@ -948,26 +1926,15 @@ public class VM {
 	return true;
   }
   
-  //checkArrayIndex(LPCArray, Double)
-  private int checkArrayIndex(LPCArray array, Double d) {
-    if (
-	  !(d instanceof Double) ||
-	  (Double)d % 1 != 0
-	) {
-	  runtimeError("Invalid array element index: " + (Double)d);
-
-	  return -1;
-	}
-    
-    int index = d.intValue();
-    
+  //checkArrayIndex(LPCArray, long)
+  private int checkArrayIndex(LPCArray array, long index) {
     if (index < 0 || index > array.size() - 1) {
       runtimeError("Array element index out of bounds: " + index);
 
       return -1;
     }
     
-    return index;
+    return (int)index;
   }
   
   //getMappingValue()
@@ -996,8 +1963,32 @@ public class VM {
   
   //isFalsey(Object)
   boolean isFalsey(Object value) {
-    //nil and false are falsey and every other value behaves like true.
-    return value == null || (value instanceof Boolean && !(boolean)value);
+    //nil, false and int 0 are falsey and every other value behaves like true.
+    return
+      value == null ||
+      (value instanceof Boolean && !(boolean)value) ||
+      (value instanceof Long && (long)value == 0);
+  }
+
+  //isFalsey(int)
+  //As isFalsey(Object), for the value n slots below the vStack top.
+  private boolean isFalsey(int n) {
+    if (vStack.isInt(n))
+      return vStack.peekInt(n) == 0;
+
+    if (vStack.isFloat(n))
+      return false;
+
+    return isFalsey(vStack.peek(n));
+  }
+
+  //isZero(int)
+  //Caller must have checked vStack.isNumber(n).
+  private boolean isZero(int n) {
+    if (vStack.isInt(n))
+      return vStack.peekInt(n) == 0;
+
+    return ((Double)vStack.peek(n)) == 0.0;
   }
 
   //concatenate()
@@ -1010,6 +2001,15 @@ public class VM {
 
   //equate()
   private void equate() {
+    if (twoNumericOperands()) {
+      if (vStack.isInt(0) && vStack.isInt(1))
+        vStack.push(vStack.popInt() == vStack.popInt());
+      else
+        vStack.push(vStack.popFloat() == vStack.popFloat());
+
+      return;
+    }
+
     Object b = vStack.pop();
     Object a = vStack.pop();
 
@@ -1022,27 +2022,17 @@ public class VM {
 
   //oneNumericOperand()
   private boolean oneNumericOperand() {
-    return vStack.peek() instanceof Double;
+    return vStack.isNumber(0);
   }
 
   //twoNumericOperands()
   private boolean twoNumericOperands() {
-    Object first = vStack.pop(); //temporarily pop
-    Object second = vStack.peek();
-
-    vStack.push(first);
-
-    return first instanceof Double && second instanceof Double;
+    return vStack.isNumber(0) && vStack.isNumber(1);
   }
 
   //twoStringOperands()
   private boolean twoStringOperands() {
-    Object first = vStack.pop();
-    Object second = vStack.peek();
-
-    vStack.push(first); //push back again
-
-    return first instanceof String && second instanceof String;
+    return vStack.peek(0) instanceof String && vStack.peek(1) instanceof String;
   }
 
   //errorOneNumber()
@@ -1055,6 +2045,72 @@ public class VM {
     return error("Operands must be two numbers.");
   }
 
+  //add()
+  //OP_ADD's work, shared with the superinstructions ending in it.
+  private boolean add() {
+    if (twoStringOperands())
+      concatenate();
+    else if (twoNumericOperands())
+      binaryOp(Operation.OPERATION_PLUS);
+    else {
+      errorTwoNumbersOrStrings();
+
+      return false;
+    }
+
+    return true;
+  }
+
+  //registerArithmetic(byte)
+  //The work of the stack op a register arithmetic op stands for,
+  //on the top two values.
+  private boolean registerArithmetic(byte code) {
+    if (code == OP_ADD_RR || code == OP_ADD_RK)
+      return add();
+
+    if (!twoNumericOperands()) {
+      errorTwoNumbers();
+
+      return false;
+    }
+
+    if (code == OP_SUBTRACT_RR || code == OP_SUBTRACT_RK)
+      binaryOp(Operation.OPERATION_SUBTRACT);
+    else if (code == OP_MULTIPLY_RR)
+      binaryOp(Operation.OPERATION_MULT);
+    else { //OP_DIVIDE_RR
+      if (isZero(0)) {
+        error("Division by zero.");
+
+        return false;
+      }
+
+      binaryOp(Operation.OPERATION_DIVIDE);
+    }
+
+    return true;
+  }
+
+
+  //Rewrite the add at site to numCode or strCode, going by the
+  //operands it is about to add.
+  private void quickenAdd(RunFrame frame, int site, byte numCode, byte strCode) {
+    if (twoNumericOperands())
+      frame.quicken(site, numCode);
+    else if (twoStringOperands())
+      frame.quicken(site, strCode);
+  }
+
+  //quickenProp(RunFrame, int, byte, InlineCache.Entry)
+  //Rewrite the OP_GET_PROP or OP_GET_THIS_PROP at site to read
+  //its cache's one entry directly.
+  private void quickenProp(RunFrame frame, int site, byte code, InlineCache.Entry entry) {
+    if (entry.kind() == InlineCache.KIND_FIELD)
+      frame.rewrite(site, (code == OP_GET_PROP) ? OP_GET_FIELD_CACHED : OP_GET_THIS_FIELD_CACHED);
+    else
+      frame.rewrite(site, (code == OP_GET_PROP) ? OP_GET_METHOD_CACHED : OP_GET_THIS_METHOD_CACHED);
+  }
+
   //errorTwoNumbersOrStrings()
   private InterpretResult errorTwoNumbersOrStrings() {
     return error("Operands must be two numbers or two strings.");
@@ -1068,25 +2124,73 @@ public class VM {
   }
 
   //binaryOp(Operation)
+  //int op int yields an int; any float operand makes the result a float.
   private void binaryOp(Operation op) {
-    double b = (double)vStack.pop();
-    double a = (double)vStack.pop();
+    if (vStack.isInt(0) && vStack.isInt(1)) {
+      intBinaryOp(op);
+
+      return;
+    }
+
+    double b = vStack.popFloat();
+    double a = vStack.popFloat();
+
+    switch (op) {
+      case OPERATION_PLUS:
+        vStack.pushFloat(a + b);
+
+        break;
+      case OPERATION_SUBTRACT:
+        vStack.pushFloat(a - b);
+
+        break;
+      case OPERATION_MULT:
+        vStack.pushFloat(a * b);
+
+        break;
+      case OPERATION_DIVIDE:
+        vStack.pushFloat(a / b);
+
+        break;
+      case OPERATION_GT:
+        vStack.push(a > b);
+
+        break;
+      case OPERATION_LT:
+        vStack.push(a < b);
+
+        break;
+      case OPERATION_GE: //as OP_LESS, OP_NOT
+        vStack.push(!(a < b));
+
+        break;
+      case OPERATION_LE: //as OP_GREATER, OP_NOT
+        vStack.push(!(a > b));
+
+        break;
+    } //switch
+  }
+
+  //intBinaryOp(Operation)
+  private void intBinaryOp(Operation op) {
+    long b = vStack.popInt();
+    long a = vStack.popInt();
 
     switch (op) {
       case OPERATION_PLUS:
-        vStack.push(a + b);
+        vStack.pushInt(a + b);
 
         break;
       case OPERATION_SUBTRACT:
-        vStack.push(a - b);
+        vStack.pushInt(a - b);
 
         break;
       case OPERATION_MULT:
-        vStack.push(a * b);
+        vStack.pushInt(a * b);
 
         break;
       case OPERATION_DIVIDE:
-        vStack.push(a / b);
+        vStack.pushInt(a / b);
 
         break;
       case OPERATION_GT:
@@ -1096,6 +2200,14 @@ public class VM {
       case OPERATION_LT:
         vStack.push(a < b);
 
+        break;
+      case OPERATION_GE: //as OP_LESS, OP_NOT
+        vStack.push(!(a < b));
+
+        break;
+      case OPERATION_LE: //as OP_GREATER, OP_NOT
+        vStack.push(!(a > b));
+
         break;
     } //switch
   }
@@ -1125,7 +2237,41 @@ public class VM {
 
   //getLibPath()
   public String getLibPath() {
-//    return Prefs.instance().getString("PATH_LIB");
-    return "/Users/jonathan/lib";
+    return libPath;
+  }
+
+  //setLibPath(String)
+  public void setLibPath(String libPath) {
+    this.libPath = libPath;
+  }
+
+  //setJitThreshold(int)
+  //0 to never compile functions to JVM code.
+  public void setJitThreshold(int jitThreshold) {
+    this.jitThreshold = jitThreshold;
+  }
+
+  //setRegisterCode(boolean)
+  //Build the objects this VM compiles as register code.
+  public void setRegisterCode(boolean registerCode) {
+    this.registerCode = registerCode;
+  }
+
+  //setOptimize(boolean)
+  //Peephole-optimize the objects this VM compiles (the default).
+  public void setOptimize(boolean optimize) {
+    this.optimize = optimize;
+  }
+
+  //setMaxCallDepth(int)
+  //Takes effect from the next interpret().  depth must be at least 1.
+  public void setMaxCallDepth(int depth) {
+    if (depth < 1)
+      throw new IllegalArgumentException("Max call depth must be at least 1, not " + depth + ".");
+
+    reset();
+
+    frames = new RunFrame[depth];
+    jitBases = new int[depth];
   }
 }